@@ -0,0 +1,144 @@
+package cn.ymjacky.benchmark;
+
+import cn.ymjacky.federation.FederationManager;
+import cn.ymjacky.manager.ConfigurationManager;
+import cn.ymjacky.queue.QueueManager;
+import cn.ymjacky.queue.QueueShard;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BooleanSupplier;
+
+// Two QueueManagers federated over the in-process loopback transport, checking the paths a single node never takes:
+//
+//   1. rehome   - both nodes start alone and claim the queue at once; the later claim loses and its players
+//                 follow the queue to the other node, keeping their join order.
+//   2. forward  - joins and leaves on the non-owner are forwarded to the owner.
+//   3. failover - the owner shuts down; the survivor takes the queue over and re-places the players it forwarded.
+//
+//   java --enable-preview -cp benchmarks.jar cn.ymjacky.benchmark.FederationScenario
+//
+// Ownership timeouts run on the wall clock, so each step ticks the fake scheduler with short sleeps until its
+// condition holds or a deadline passes. Exits with status 1 when a check fails.
+public final class FederationScenario {
+
+    private static final String QUEUE = "fed";
+    private static final int NODE_TIMEOUT_SECONDS = 1;
+    private static final long STEP_DEADLINE_MILLIS = 10_000L;
+
+    private final TickScheduler scheduler = new TickScheduler();
+    private final Map<UUID, Player> online = new ConcurrentHashMap<>();
+    private int failures;
+
+    public static void main(String[] args) throws InterruptedException {
+        System.exit(new FederationScenario().run());
+    }
+
+    private int run() throws InterruptedException {
+        scheduler.install(online::get);
+        QueueManager first = node("lobby-a");
+        // Distinct claim times, so the earlier claim wins deterministically.
+        Thread.sleep(5);
+        QueueManager second = node("lobby-b");
+
+        List<Player> firstPlayers = join(first, 4);
+        Thread.sleep(5);
+        List<Player> secondPlayers = join(second, 4);
+        check("both nodes take joins before any peer is seen", waiting(first) == 4 && waiting(second) == 4);
+
+        await(() -> waiting(first) == 8 && waiting(second) == 0);
+        check("rehome: the later claimant hands its players to the owner",
+                waiting(first) == 8 && waiting(second) == 0 && forwarded(second) == 4);
+        check("rehome: both nodes agree on the owner", "lobby-a".equals(owner(first)) && "lobby-a".equals(owner(second)));
+
+        secondPlayers.addAll(join(second, 2));
+        await(() -> waiting(first) == 10);
+        check("forward: joins on the other node land on the owner", waiting(first) == 10 && forwarded(second) == 6);
+        Player leaving = secondPlayers.removeLast();
+        second.leaveQueue(leaving);
+        await(() -> waiting(first) == 9);
+        check("forward: leaves on the other node reach the owner", waiting(first) == 9 && forwarded(second) == 5);
+
+        first.shutdown();
+        firstPlayers.forEach(player -> online.remove(player.getUniqueId()));
+        await(() -> waiting(second) == 5 && forwarded(second) == 0);
+        check("failover: the survivor takes over the queue", "lobby-b".equals(owner(second)));
+        check("failover: forwarded players are re-placed on the survivor",
+                waiting(second) == 5 && forwarded(second) == 0);
+
+        List<String> problems = second.verifyGroupIndex();
+        problems.forEach(problem -> check(problem, false));
+        second.shutdown();
+        System.out.println(failures == 0 ? "Federation scenario passed" : "Federation scenario: " + failures + " failed");
+        return failures == 0 ? 0 : 1;
+    }
+
+    private QueueManager node(String nodeId) {
+        YamlConfiguration config = Headless.configuration();
+        config.set("journal.enabled", false);
+        config.set("metrics.prometheus.enabled", false);
+        config.set("federation.enabled", true);
+        config.set("federation.transport", "loopback");
+        config.set("federation.node-id", nodeId);
+        config.set("federation.heartbeat-ticks", 1);
+        config.set("federation.node-timeout-seconds", NODE_TIMEOUT_SECONDS);
+        config.set("queues", null);
+        // Large enough that nothing in the scenario fills a group.
+        config.set("queues." + QUEUE + ".min-players", 16);
+        config.set("queues." + QUEUE + ".max-players", 16);
+        Plugin plugin = Headless.plugin(config);
+        return new QueueManager(plugin, new ConfigurationManager(plugin));
+    }
+
+    private List<Player> join(QueueManager node, int count) {
+        List<Player> joined = new ArrayList<>(count);
+        for (Player player : Headless.players(count)) {
+            online.put(player.getUniqueId(), player);
+            node.joinQueue(player, QUEUE);
+            joined.add(player);
+        }
+        return joined;
+    }
+
+    private void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + STEP_DEADLINE_MILLIS;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            scheduler.advance();
+            Thread.sleep(10);
+        }
+        // A few more ticks so late messages that would break the condition get a chance to arrive.
+        for (int i = 0; i < 5; i++) {
+            scheduler.advance();
+        }
+    }
+
+    private static int waiting(QueueManager node) {
+        int count = 0;
+        for (QueueShard shard : node.getInstances(QUEUE)) {
+            count += shard.getQueue().getPlayerCount();
+        }
+        return count;
+    }
+
+    private static int forwarded(QueueManager node) {
+        FederationManager federation = node.getFederation();
+        return federation == null ? 0 : federation.getForwardedCount();
+    }
+
+    private static String owner(QueueManager node) {
+        return node.getFederation().ownerOf(QUEUE);
+    }
+
+    private void check(String description, boolean passed) {
+        System.out.println((passed ? "PASS: " : "FAIL: ") + description);
+        if (!passed) {
+            failures++;
+        }
+    }
+}
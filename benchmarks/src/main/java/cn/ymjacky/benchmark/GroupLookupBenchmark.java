@@ -0,0 +1,75 @@
+package cn.ymjacky.benchmark;
+
+import cn.ymjacky.queue.GameQueue;
+import cn.ymjacky.queue.QueueGroup;
+import cn.ymjacky.queue.QueuePlayer;
+import cn.ymjacky.queue.QueueShard;
+import cn.ymjacky.task.RegionFanout;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.entity.Player;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+// Finding a player's group among many formed groups. QueueManager.getPlayerGroup resolves the shard from the
+// player's ticket and then asks the shard index, which is what "indexed" measures; "scan" is the old linear search.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class GroupLookupBenchmark {
+
+    private static final int GROUP_SIZE = 8;
+
+    @Param({"100", "1000", "10000"})
+    public int groups;
+
+    private QueueShard shard;
+    private UUID[] members;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Headless.install();
+        int players = groups * GROUP_SIZE;
+        shard = new QueueShard(new GameQueue(Headless.queue("bench", GROUP_SIZE, players)));
+        List<UUID> ids = new ArrayList<>(players);
+        for (Player player : Headless.players(players)) {
+            shard.join(new QueuePlayer(player));
+            ids.add(player.getUniqueId());
+        }
+        shard.formFullGroups(new RegionFanout(Headless.plugin(new YamlConfiguration())), Headless.configManager());
+        Collections.shuffle(ids);
+        members = ids.toArray(UUID[]::new);
+    }
+
+    @Benchmark
+    public QueueGroup indexed() {
+        return shard.getPlayerGroup(nextMember());
+    }
+
+    @Benchmark
+    public QueueGroup scan() {
+        UUID playerId = nextMember();
+        for (QueueGroup group : shard.getGroups()) {
+            if (group.containsPlayer(playerId)) {
+                return group;
+            }
+        }
+        return null;
+    }
+
+    private UUID nextMember() {
+        int index = next++;
+        if (next == members.length) {
+            next = 0;
+        }
+        return members[index];
+    }
+}
@@ -0,0 +1,233 @@
+package cn.ymjacky.benchmark;
+
+import cn.ymjacky.config.QueueConfig;
+import cn.ymjacky.manager.ConfigurationManager;
+import io.papermc.paper.threadedregions.scheduler.AsyncScheduler;
+import io.papermc.paper.threadedregions.scheduler.EntityScheduler;
+import io.papermc.paper.threadedregions.scheduler.GlobalRegionScheduler;
+import io.papermc.paper.threadedregions.scheduler.RegionScheduler;
+import io.papermc.paper.threadedregions.scheduler.ScheduledTask;
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.Server;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+// Stand-ins for the server, the plugin, players and the Folia schedulers so the queue classes run without a server.
+// One-shot tasks run inline and delayed tasks never fire; repeating global tasks only run when a benchmark calls
+// tickGlobal(), so the benchmarks drive timing themselves.
+final class Headless {
+
+    private static final Logger LOGGER = Logger.getLogger("SPTools-benchmarks");
+    private static final ScheduledTask IDLE_TASK = stub(ScheduledTask.class, (method, _) ->
+            method.getName().equals("cancel") ? ScheduledTask.CancelledState.CANCELLED_BY_CALLER : null);
+    private static final EntityScheduler ENTITY_SCHEDULER = stub(EntityScheduler.class, Headless::schedule);
+    private static final Location SPAWN = new Location(null, 0, 64, 0);
+    private static final List<Consumer<ScheduledTask>> GLOBAL_REPEATING = new CopyOnWriteArrayList<>();
+
+    private Headless() {
+    }
+
+    static synchronized void install() {
+        if (Bukkit.getServer() != null) {
+            return;
+        }
+        GlobalRegionScheduler global = stub(GlobalRegionScheduler.class, Headless::scheduleGlobal);
+        RegionScheduler region = stub(RegionScheduler.class, Headless::schedule);
+        AsyncScheduler async = stub(AsyncScheduler.class, Headless::schedule);
+        install(server(global, region, async));
+    }
+
+    static Server server(GlobalRegionScheduler global, RegionScheduler region, AsyncScheduler async) {
+        return server(global, region, async, _ -> null);
+    }
+
+    // players answers Bukkit.getPlayer(UUID), for code paths that look an online player up again by id.
+    static Server server(GlobalRegionScheduler global, RegionScheduler region, AsyncScheduler async,
+                         Function<UUID, Player> players) {
+        return stub(Server.class, (method, args) -> switch (method.getName()) {
+            case "getPlayer" -> args.length == 1 && args[0] instanceof UUID playerId ? players.apply(playerId) : null;
+            case "getGlobalRegionScheduler" -> global;
+            case "getRegionScheduler" -> region;
+            case "getAsyncScheduler" -> async;
+            case "getLogger" -> LOGGER;
+            case "getName" -> "Headless";
+            case "isOwnedByCurrentRegion", "isGlobalTickThread", "dispatchCommand" -> true;
+            default -> null;
+        });
+    }
+
+    // Bukkit.setServer logs build info that only a real server jar provides, so the singleton is set directly.
+    static synchronized void install(Server server) {
+        try {
+            Field field = Bukkit.class.getDeclaredField("server");
+            field.setAccessible(true);
+            field.set(null, server);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot install the headless server", e);
+        }
+    }
+
+    static Plugin plugin(YamlConfiguration config) {
+        return plugin(config, null);
+    }
+
+    static Plugin plugin(YamlConfiguration config, File dataFolder) {
+        return stub(Plugin.class, (method, _) -> switch (method.getName()) {
+            case "getConfig" -> config;
+            case "getDataFolder" -> dataFolder;
+            case "getLogger" -> LOGGER;
+            case "getName" -> "SPTools";
+            case "getServer" -> Bukkit.getServer();
+            case "isEnabled" -> true;
+            default -> null;
+        });
+    }
+
+    // The plugin's own config.yml, so messages and scheduler settings match a fresh install.
+    static YamlConfiguration configuration() {
+        InputStream resource = Objects.requireNonNull(ConfigurationManager.class.getResourceAsStream("/config.yml"),
+                "config.yml is missing from the SPTools jar");
+        try (Reader reader = new InputStreamReader(resource, StandardCharsets.UTF_8)) {
+            return YamlConfiguration.loadConfiguration(reader);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static ConfigurationManager configManager() {
+        return new ConfigurationManager(plugin(configuration()));
+    }
+
+    static Player player(UUID playerId) {
+        String name = "bench-" + Long.toHexString(playerId.getLeastSignificantBits() & 0xffffffL);
+        return stub(Player.class, (method, _) -> switch (method.getName()) {
+            case "getUniqueId" -> playerId;
+            case "getName" -> name;
+            case "isOnline" -> true;
+            case "getLocation" -> SPAWN;
+            case "getScheduler" -> ENTITY_SCHEDULER;
+            default -> null;
+        });
+    }
+
+    static Player[] players(int count) {
+        Player[] players = new Player[count];
+        for (int i = 0; i < count; i++) {
+            players[i] = player(UUID.randomUUID());
+        }
+        return players;
+    }
+
+    static QueueConfig queue(String name, int groupSize, int capacity) {
+        return new QueueConfig(name, groupSize, groupSize, capacity, 1, "say " + name, 30, 10, 0,
+                true, true, 0, 0, Map.of(), List.of(), 0);
+    }
+
+    // One round of the repeating global tasks, i.e. one server tick of the mailbox drain and the timing wheel.
+    // Not thread-safe; callers make sure only one thread ticks at a time.
+    static void tickGlobal() {
+        for (Consumer<ScheduledTask> task : GLOBAL_REPEATING) {
+            task.accept(IDLE_TASK);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object scheduleGlobal(Method method, Object[] args) {
+        if (!method.getName().equals("runAtFixedRate")) {
+            return schedule(method, args);
+        }
+        Consumer<ScheduledTask> task = (Consumer<ScheduledTask>) args[1];
+        GLOBAL_REPEATING.add(task);
+        return stub(ScheduledTask.class, (called, _) -> called.getName().equals("cancel") && GLOBAL_REPEATING.remove(task)
+                ? ScheduledTask.CancelledState.CANCELLED_BY_CALLER
+                : null);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object schedule(Method method, Object[] args) {
+        if (method.getName().equals("execute") || method.getName().equals("run") || method.getName().equals("runNow")) {
+            for (Object arg : args) {
+                if (arg instanceof Runnable task) {
+                    task.run();
+                    break;
+                }
+                if (arg instanceof Consumer<?> task) {
+                    ((Consumer<ScheduledTask>) task).accept(IDLE_TASK);
+                    break;
+                }
+            }
+        }
+        return method.getReturnType() == ScheduledTask.class ? IDLE_TASK : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> T stub(Class<T> type, BiFunction<Method, Object[], Object> handler) {
+        return (T) Proxy.newProxyInstance(Headless.class.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "hashCode" -> {
+                    return System.identityHashCode(proxy);
+                }
+                case "equals" -> {
+                    return proxy == args[0];
+                }
+                case "toString" -> {
+                    return "Headless" + type.getSimpleName();
+                }
+                default -> {
+                }
+            }
+            Object result = handler.apply(method, args == null ? new Object[0] : args);
+            return result != null ? result : defaultValue(method.getReturnType());
+        });
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (!type.isPrimitive() || type == void.class) {
+            return null;
+        }
+        if (type == boolean.class) {
+            return false;
+        }
+        if (type == char.class) {
+            return '\0';
+        }
+        if (type == long.class) {
+            return 0L;
+        }
+        if (type == float.class) {
+            return 0f;
+        }
+        if (type == double.class) {
+            return 0d;
+        }
+        if (type == byte.class) {
+            return (byte) 0;
+        }
+        if (type == short.class) {
+            return (short) 0;
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,109 @@
+package cn.ymjacky.benchmark;
+
+import cn.ymjacky.journal.QueueJournal;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class JournalBenchmark {
+
+    private static final int SEGMENT_BYTES = 16 << 20;
+
+    private Path directory;
+    private QueueJournal journal;
+    private UUID[] players;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("sptools-journal");
+        journal = QueueJournal.open(directory, SEGMENT_BYTES);
+        players = new UUID[4096];
+        for (int i = 0; i < players.length; i++) {
+            players[i] = UUID.randomUUID();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        journal.close();
+        delete(directory);
+    }
+
+    // A join followed by a leave keeps the journal state bounded; compactions are included as they occur.
+    @Benchmark
+    @OperationsPerInvocation(2)
+    public void appendJoinLeave() {
+        UUID playerId = players[next++ & (players.length - 1)];
+        journal.join("survival", playerId, null, "default", false, System.currentTimeMillis());
+        journal.leave(playerId);
+    }
+
+    @Benchmark
+    public void appendConfirm() {
+        journal.confirm("bench", players[next++ & (players.length - 1)]);
+    }
+
+    @State(Scope.Benchmark)
+    public static class Recovery {
+
+        @Param({"10000"})
+        public int entries;
+
+        @Param({"false", "true"})
+        public boolean compacted;
+
+        private Path directory;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            directory = Files.createTempDirectory("sptools-recovery");
+            QueueJournal journal = QueueJournal.open(directory, SEGMENT_BYTES);
+            long joinedAt = System.currentTimeMillis();
+            for (int i = 0; i < entries; i++) {
+                journal.join(i % 2 == 0 ? "survival" : "creative", UUID.randomUUID(), null, "default", false, joinedAt + i);
+            }
+            if (compacted) {
+                journal.compact();
+            }
+            journal.close();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            delete(directory);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 5)
+    @Measurement(iterations = 20)
+    public int recover(Recovery recovery) throws IOException {
+        try (QueueJournal journal = QueueJournal.open(recovery.directory, SEGMENT_BYTES)) {
+            return journal.getState().restorable().size();
+        }
+    }
+
+    private static void delete(Path directory) {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package cn.ymjacky.benchmark;
+
+import cn.ymjacky.manager.ConfigurationManager;
+import cn.ymjacky.queue.GameQueue;
+import cn.ymjacky.queue.QueueGroup;
+import cn.ymjacky.queue.QueuePlayer;
+import cn.ymjacky.queue.QueueShard;
+import cn.ymjacky.queue.QueueTicket;
+import cn.ymjacky.task.RegionFanout;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.entity.Player;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Join, leave, confirm and group formation on one shared queue under 1, 8 and 32 contending threads, driving the
+// shard and group directly; QueueManagerBenchmark measures the same operations through the manager.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class QueueBenchmark {
+
+    private static final int GROUP_SIZE = 8;
+    // Large enough that every thread's confirmations land on the same group.
+    private static final int CONFIRM_GROUP_SIZE = 64;
+
+    private QueueShard shard;
+    private RegionFanout fanout;
+    private ConfigurationManager configManager;
+    private List<QueuePlayer> confirmers;
+    private AtomicReference<QueueGroup> confirming;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Headless.install();
+        shard = new QueueShard(new GameQueue(Headless.queue("bench", GROUP_SIZE, 1 << 20)));
+        fanout = new RegionFanout(Headless.plugin(new YamlConfiguration()));
+        configManager = Headless.configManager();
+        confirmers = new ArrayList<>();
+        for (Player player : Headless.players(CONFIRM_GROUP_SIZE)) {
+            confirmers.add(new QueuePlayer(player));
+        }
+        confirming = new AtomicReference<>(new QueueGroup(shard.getQueue(), confirmers, fanout, configManager));
+    }
+
+    @State(Scope.Thread)
+    public static class Worker {
+
+        private Player[] players;
+        private int next;
+        private int confirmNext;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            players = Headless.players(1024);
+            next = ThreadLocalRandom.current().nextInt(players.length);
+            confirmNext = ThreadLocalRandom.current().nextInt(CONFIRM_GROUP_SIZE);
+        }
+
+        private QueuePlayer nextPlayer() {
+            Player player = players[next++ & (players.length - 1)];
+            return new QueuePlayer(player, new QueueTicket(player.getUniqueId()), null, null, false);
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public QueuePlayer joinLeave1(Worker worker) {
+        return joinLeave(worker);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public QueuePlayer joinLeave8(Worker worker) {
+        return joinLeave(worker);
+    }
+
+    @Benchmark
+    @Threads(32)
+    public QueuePlayer joinLeave32(Worker worker) {
+        return joinLeave(worker);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean confirm1(Worker worker) {
+        return confirm(worker);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public boolean confirm8(Worker worker) {
+        return confirm(worker);
+    }
+
+    @Benchmark
+    @Threads(32)
+    public boolean confirm32(Worker worker) {
+        return confirm(worker);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public QueueGroup formGroup1(Worker worker) {
+        return formGroup(worker);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public QueueGroup formGroup8(Worker worker) {
+        return formGroup(worker);
+    }
+
+    @Benchmark
+    @Threads(32)
+    public QueueGroup formGroup32(Worker worker) {
+        return formGroup(worker);
+    }
+
+    private QueuePlayer joinLeave(Worker worker) {
+        QueuePlayer queuePlayer = worker.nextPlayer();
+        shard.join(queuePlayer);
+        return shard.removeWaiting(queuePlayer.getPlayerId());
+    }
+
+    // Once every member has confirmed, the group is replaced, so the cost of forming it is amortized in.
+    private boolean confirm(Worker worker) {
+        QueueGroup group = confirming.get();
+        QueuePlayer member = confirmers.get(worker.confirmNext++ & (CONFIRM_GROUP_SIZE - 1));
+        boolean confirmed = group.confirmPlayer(member.getPlayerId());
+        if (group.allConfirmed() && confirming.get() == group) {
+            confirming.compareAndSet(group, new QueueGroup(shard.getQueue(), confirmers, fanout, configManager));
+        }
+        return confirmed;
+    }
+
+    // One full group: its members join, the group is polled out of the queue and then released.
+    private QueueGroup formGroup(Worker worker) {
+        for (int i = 0; i < GROUP_SIZE; i++) {
+            shard.join(worker.nextPlayer());
+        }
+        QueueGroup group = shard.formGroup(GROUP_SIZE, GROUP_SIZE, fanout, configManager);
+        if (group != null) {
+            shard.removeGroup(group);
+        }
+        return group;
+    }
+}
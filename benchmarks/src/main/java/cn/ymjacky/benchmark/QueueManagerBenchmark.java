@@ -0,0 +1,170 @@
+package cn.ymjacky.benchmark;
+
+import cn.ymjacky.manager.ConfigurationManager;
+import cn.ymjacky.queue.QueueManager;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+// The public QueueManager entry points under 1, 8 and 32 threads: ticket claims, family placement, the journal and,
+// in actor mode, the mailbox. QueueBenchmark measures the shard and group underneath. In actor mode whichever
+// thread gets the tick lock drains the mailbox, standing in for the global region thread.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class QueueManagerBenchmark {
+
+    // Larger than the thread count, so joinLeave never fills a group.
+    private static final int WAITING_GROUP_SIZE = 64;
+    private static final int MAX_THREADS = 32;
+    private static final int MAX_TICKS_PER_PUMP = 8;
+    private static final AtomicInteger DUEL_QUEUES = new AtomicInteger();
+
+    @Param({"direct", "actor"})
+    public String execution;
+
+    @Param({"false", "true"})
+    public boolean journal;
+
+    private final ReentrantLock ticking = new ReentrantLock();
+    private Path dataFolder;
+    private QueueManager queueManager;
+    private boolean actor;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Headless.install();
+        YamlConfiguration config = Headless.configuration();
+        config.set("execution.mode", execution);
+        config.set("journal.enabled", journal);
+        config.set("federation.enabled", false);
+        config.set("metrics.prometheus.enabled", false);
+        config.set("queues", null);
+        config.set("queues.bench.min-players", WAITING_GROUP_SIZE);
+        config.set("queues.bench.max-players", WAITING_GROUP_SIZE);
+        config.set("queues.bench.capacity", 1 << 20);
+        // One two-player queue per thread, so a thread's pair always forms its own group.
+        for (int i = 0; i < MAX_THREADS; i++) {
+            config.set("queues.duel-" + i + ".min-players", 2);
+            config.set("queues.duel-" + i + ".max-players", 2);
+        }
+        dataFolder = Files.createTempDirectory("sptools-bench");
+        Plugin plugin = Headless.plugin(config, dataFolder.toFile());
+        queueManager = new QueueManager(plugin, new ConfigurationManager(plugin));
+        actor = queueManager.isActorMode();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        queueManager.shutdown();
+        try (Stream<Path> files = Files.walk(dataFolder)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> {
+                try {
+                    Files.delete(path);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Worker {
+
+        private Player[] players;
+        private Player[] pair;
+        private String duel;
+        private int next;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            players = Headless.players(1024);
+            pair = Headless.players(2);
+            duel = "duel-" + DUEL_QUEUES.getAndIncrement() % MAX_THREADS;
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public int joinLeave1(Worker worker) {
+        return joinLeave(worker);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public int joinLeave8(Worker worker) {
+        return joinLeave(worker);
+    }
+
+    @Benchmark
+    @Threads(32)
+    public int joinLeave32(Worker worker) {
+        return joinLeave(worker);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public int confirm1(Worker worker) {
+        return confirm(worker);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public int confirm8(Worker worker) {
+        return confirm(worker);
+    }
+
+    @Benchmark
+    @Threads(32)
+    public int confirm32(Worker worker) {
+        return confirm(worker);
+    }
+
+    private int joinLeave(Worker worker) {
+        Player player = worker.players[worker.next++ & (worker.players.length - 1)];
+        queueManager.joinQueue(player, "bench");
+        queueManager.leaveQueue(player);
+        return pump();
+    }
+
+    // The pair forms a group on the second join, both confirm, and leaving releases the group again.
+    private int confirm(Worker worker) {
+        for (Player player : worker.pair) {
+            queueManager.joinQueue(player, worker.duel);
+        }
+        for (Player player : worker.pair) {
+            queueManager.confirmParticipation(player);
+        }
+        for (Player player : worker.pair) {
+            queueManager.leaveQueue(player);
+        }
+        return pump();
+    }
+
+    private int pump() {
+        if (actor && ticking.tryLock()) {
+            try {
+                for (int i = 0; i < MAX_TICKS_PER_PUMP && queueManager.getMailboxSize() > 0; i++) {
+                    Headless.tickGlobal();
+                }
+            } finally {
+                ticking.unlock();
+            }
+        }
+        return queueManager.getMailboxSize();
+    }
+}
@@ -0,0 +1,388 @@
+package cn.ymjacky.benchmark;
+
+import cn.ymjacky.listener.PlayerConnectionListener;
+import cn.ymjacky.manager.ConfigurationManager;
+import cn.ymjacky.metrics.LatencyHistogram;
+import cn.ymjacky.queue.QueueManager;
+import org.bukkit.Location;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.plugin.Plugin;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
+import java.util.UUID;
+
+// Drives QueueManager, QueueScheduler and the connection listener with synthetic players on a fake tick clock, with
+// no server. Players join, give up waiting, confirm (sometimes too late), play and disconnect after exponentially
+// distributed delays drawn from a seeded generator, so the same arguments always produce the same outcome checksum.
+//
+//   java --enable-preview -cp benchmarks.jar cn.ymjacky.benchmark.QueueSimulation players=50000 seconds=900
+//
+// Durations are in seconds. Exits with status 1 so it can gate CI when:
+//   - allocation per tick exceeds max-alloc-kb-per-tick; allocation barely depends on the machine, so this is the
+//     budget that catches a scaling regression,
+//   - p99 tick cost exceeds max-tick-ms, a deliberately generous ceiling for the wall clock,
+//   - no game started, or the player-to-group index is inconsistent at the end,
+//   - expect-checksum is given and the outcome differs (opt in; any intended behaviour change moves the checksum).
+// A limit of 0 disables that check.
+public final class QueueSimulation {
+
+    private static final Map<String, String> DEFAULTS = defaults();
+
+    private enum Kind {
+        JOIN, LEAVE, CONFIRM, FINISH, DISCONNECT, RECONNECT
+    }
+
+    private enum Reaction {
+        READY, TELEPORTING, CANCELLED, REJECTED
+    }
+
+    private record Action(long tick, long sequence, SyntheticPlayer player, Kind kind, int stamp) {
+    }
+
+    private final Map<String, String> settings;
+    private final SplittableRandom random;
+    private final TickScheduler scheduler = new TickScheduler();
+    private final PriorityQueue<Action> actions = new PriorityQueue<>(
+            Comparator.comparingLong(Action::tick).thenComparingLong(Action::sequence));
+    private final List<SyntheticPlayer> players = new ArrayList<>();
+    private final Map<String, Reaction> reactions = new HashMap<>();
+    private final String[] queueNames;
+    private final LatencyHistogram joinToPrompt = new LatencyHistogram();
+    private final LatencyHistogram joinToGame = new LatencyHistogram();
+    private final LatencyHistogram tickCost = new LatencyHistogram();
+    private final long confirmationTicks;
+    private QueueManager queueManager;
+    private PlayerConnectionListener connections;
+    private long sequence;
+    private long allocatedBytes;
+    private long measuredTicks;
+    private long joins;
+    private long rejected;
+    private long abandoned;
+    private long grouped;
+    private long lateConfirms;
+    private long started;
+    private long cancelled;
+    private long disconnects;
+
+    private QueueSimulation(Map<String, String> settings) {
+        this.settings = settings;
+        this.random = new SplittableRandom(longSetting("seed"));
+        this.queueNames = settings.get("group-sizes").split(",");
+        for (int i = 0; i < queueNames.length; i++) {
+            queueNames[i] = "sim-" + queueNames[i].trim();
+        }
+        this.confirmationTicks = longSetting("confirmation-time") * 20L;
+    }
+
+    public static void main(String[] args) {
+        Map<String, String> settings = new HashMap<>(DEFAULTS);
+        for (String arg : args) {
+            int split = arg.indexOf('=');
+            if (split <= 0 || !DEFAULTS.containsKey(arg.substring(0, split))) {
+                System.err.println("Unknown argument " + arg + ", expected key=value with a key from " + DEFAULTS.keySet());
+                System.exit(2);
+            }
+            settings.put(arg.substring(0, split), arg.substring(split + 1));
+        }
+        System.exit(new QueueSimulation(settings).run());
+    }
+
+    private static Map<String, String> defaults() {
+        Map<String, String> defaults = new HashMap<>();
+        defaults.put("players", "20000");
+        defaults.put("seconds", "600");
+        defaults.put("warmup-seconds", "60");
+        defaults.put("seed", "1");
+        defaults.put("group-sizes", "2,8");
+        defaults.put("execution", "direct");
+        defaults.put("scheduler", "single");
+        defaults.put("confirmation-time", "30");
+        defaults.put("countdown-time", "5");
+        // Mean seconds between finishing something and joining a queue again.
+        defaults.put("idle", "30");
+        // Mean seconds a player waits for a group before leaving the queue.
+        defaults.put("patience", "300");
+        defaults.put("confirm", "4");
+        // Share of prompts confirmed only after the confirmation window has closed.
+        defaults.put("late-confirm", "0.05");
+        defaults.put("game", "180");
+        defaults.put("session", "1800");
+        defaults.put("offline", "120");
+        defaults.put("spread", "2000");
+        // Empty skips the checksum comparison.
+        defaults.put("expect-checksum", "");
+        // About twice the measured cost at the default arguments.
+        defaults.put("max-alloc-kb-per-tick", "40");
+        defaults.put("max-tick-ms", "50");
+        return defaults;
+    }
+
+    private int run() {
+        scheduler.install();
+        Plugin plugin = Headless.plugin(configuration());
+        ConfigurationManager configManager = new ConfigurationManager(plugin);
+        reactions.put(configManager.getMessage("queue.group.ready"), Reaction.READY);
+        reactions.put(configManager.getMessage("queue.group.teleporting"), Reaction.TELEPORTING);
+        reactions.put(configManager.getMessage("queue.group.cancelled"), Reaction.CANCELLED);
+        reactions.put(configManager.getMessage("queue.join.full"), Reaction.REJECTED);
+        reactions.put(configManager.getMessage("queue.join.already-in"), Reaction.REJECTED);
+        queueManager = new QueueManager(plugin, configManager);
+        connections = new PlayerConnectionListener(queueManager);
+
+        int spread = (int) longSetting("spread");
+        for (int i = 0; i < longSetting("players"); i++) {
+            UUID id = new UUID(random.nextLong(), random.nextLong());
+            Location location = new Location(null, random.nextInt(-spread, spread + 1), 64, random.nextInt(-spread, spread + 1));
+            SyntheticPlayer player = new SyntheticPlayer(id, location, scheduler, this::onMessage);
+            players.add(player);
+            at(sample("idle"), player, Kind.JOIN, player.generation);
+            at(sample("session"), player, Kind.DISCONNECT, player.session);
+        }
+
+        long ticks = longSetting("seconds") * 20L;
+        long warmupTicks = longSetting("warmup-seconds") * 20L;
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long wallStart = System.nanoTime();
+        for (long tick = 0; tick < ticks; tick++) {
+            boolean measured = tick >= warmupTicks;
+            long allocatedBefore = measured ? threads.getCurrentThreadAllocatedBytes() : 0L;
+            long start = System.nanoTime();
+            runActions(tick);
+            scheduler.advance();
+            long cost = System.nanoTime() - start;
+            if (measured) {
+                allocatedBytes += threads.getCurrentThreadAllocatedBytes() - allocatedBefore;
+                tickCost.record(cost / 1000L);
+                measuredTicks++;
+            }
+        }
+        long wallMillis = (System.nanoTime() - wallStart) / 1_000_000L;
+        List<String> indexProblems = queueManager.verifyGroupIndex();
+        queueManager.shutdown();
+        return report(ticks, wallMillis, indexProblems);
+    }
+
+    private YamlConfiguration configuration() {
+        YamlConfiguration config = Headless.configuration();
+        // Features that write files, talk to other nodes or depend on the wall clock would make runs diverge.
+        config.set("journal.enabled", false);
+        config.set("federation.enabled", false);
+        config.set("metrics.prometheus.enabled", false);
+        config.set("execution.mode", settings.get("execution"));
+        config.set("scheduler.mode", settings.get("scheduler"));
+        config.set("queues", null);
+        for (String queueName : queueNames) {
+            int size = Integer.parseInt(queueName.substring("sim-".length()));
+            String path = "queues." + queueName;
+            config.set(path + ".min-players", size);
+            config.set(path + ".max-players", size);
+            config.set(path + ".capacity", (int) longSetting("players"));
+            config.set(path + ".confirmation-time", (int) longSetting("confirmation-time"));
+            config.set(path + ".countdown-time", (int) longSetting("countdown-time"));
+            // Relaxation is driven by System.currentTimeMillis, so only full groups form.
+            config.set(path + ".auto-start", false);
+            config.set(path + ".game-command", "say " + queueName);
+            config.set(path + ".arena-hold-seconds", 0);
+        }
+        return config;
+    }
+
+    private void runActions(long tick) {
+        Action action;
+        while ((action = actions.peek()) != null && action.tick() <= tick) {
+            actions.poll();
+            perform(action, tick);
+        }
+    }
+
+    private void perform(Action action, long now) {
+        SyntheticPlayer player = action.player();
+        if (action.kind() == Kind.DISCONNECT || action.kind() == Kind.RECONNECT) {
+            if (action.stamp() != player.session) {
+                return;
+            }
+        } else if (action.stamp() != player.generation) {
+            return;
+        }
+        switch (action.kind()) {
+            case JOIN -> {
+                if (player.state != SyntheticPlayer.State.IDLE) {
+                    return;
+                }
+                player.moveTo(SyntheticPlayer.State.WAITING);
+                player.joinedAt = now;
+                joins++;
+                at(now + sample("patience"), player, Kind.LEAVE, player.generation);
+                queueManager.joinQueue(player.player, queueNames[random.nextInt(queueNames.length)]);
+            }
+            case LEAVE -> {
+                abandoned++;
+                player.moveTo(SyntheticPlayer.State.IDLE);
+                queueManager.leaveQueue(player.player);
+                at(now + sample("idle"), player, Kind.JOIN, player.generation);
+            }
+            case CONFIRM -> {
+                player.moveTo(SyntheticPlayer.State.CONFIRMED);
+                queueManager.confirmParticipation(player.player);
+            }
+            case FINISH -> {
+                player.moveTo(SyntheticPlayer.State.IDLE);
+                at(now + sample("idle"), player, Kind.JOIN, player.generation);
+            }
+            case DISCONNECT -> {
+                disconnects++;
+                player.moveTo(SyntheticPlayer.State.OFFLINE);
+                player.session++;
+                connections.onPlayerQuit(new PlayerQuitEvent(player.player, null,
+                        PlayerQuitEvent.QuitReason.DISCONNECTED));
+                at(now + sample("offline"), player, Kind.RECONNECT, player.session);
+            }
+            case RECONNECT -> {
+                player.moveTo(SyntheticPlayer.State.IDLE);
+                player.session++;
+                connections.onPlayerJoin(new PlayerJoinEvent(player.player, null));
+                at(now + sample("idle"), player, Kind.JOIN, player.generation);
+                at(now + sample("session"), player, Kind.DISCONNECT, player.session);
+            }
+        }
+    }
+
+    private void onMessage(SyntheticPlayer player, String message) {
+        Reaction reaction = reactions.get(message);
+        if (reaction == null) {
+            return;
+        }
+        long now = scheduler.getTick();
+        SyntheticPlayer.State state = player.state;
+        switch (reaction) {
+            case READY -> {
+                if (state != SyntheticPlayer.State.WAITING) {
+                    return;
+                }
+                grouped++;
+                player.moveTo(SyntheticPlayer.State.GROUPED);
+                joinToPrompt.record(now - player.joinedAt);
+                long delay;
+                if (random.nextDouble() < doubleSetting("late-confirm")) {
+                    lateConfirms++;
+                    delay = confirmationTicks + 20L;
+                } else {
+                    delay = sample("confirm");
+                }
+                at(now + delay, player, Kind.CONFIRM, player.generation);
+            }
+            case TELEPORTING -> {
+                if (state != SyntheticPlayer.State.GROUPED && state != SyntheticPlayer.State.CONFIRMED) {
+                    return;
+                }
+                started++;
+                player.moveTo(SyntheticPlayer.State.PLAYING);
+                joinToGame.record(now - player.joinedAt);
+                at(now + sample("game"), player, Kind.FINISH, player.generation);
+            }
+            case CANCELLED, REJECTED -> {
+                if (state == SyntheticPlayer.State.OFFLINE || state == SyntheticPlayer.State.IDLE
+                        || state == SyntheticPlayer.State.PLAYING) {
+                    return;
+                }
+                if (reaction == Reaction.CANCELLED) {
+                    cancelled++;
+                } else {
+                    rejected++;
+                }
+                player.moveTo(SyntheticPlayer.State.IDLE);
+                at(now + sample("idle"), player, Kind.JOIN, player.generation);
+            }
+        }
+    }
+
+    private void at(long tick, SyntheticPlayer player, Kind kind, int stamp) {
+        actions.add(new Action(tick, sequence++, player, kind, stamp));
+    }
+
+    // Exponentially distributed delay in ticks, at least one.
+    private long sample(String key) {
+        double mean = doubleSetting(key) * 20.0;
+        return Math.max(1L, Math.round(-mean * Math.log(1.0 - random.nextDouble())));
+    }
+
+    private long longSetting(String key) {
+        return Long.parseLong(settings.get(key));
+    }
+
+    private double doubleSetting(String key) {
+        return Double.parseDouble(settings.get(key));
+    }
+
+    private int report(long ticks, long wallMillis, List<String> indexProblems) {
+        long checksum = 17L;
+        for (long value : new long[]{joins, rejected, abandoned, grouped, lateConfirms, started, cancelled, disconnects,
+                joinToPrompt.getSum(), joinToGame.getSum(), scheduler.getExecuted()}) {
+            checksum = checksum * 31L + value;
+        }
+        double p99Millis = tickCost.percentile(99) / 1000.0;
+        double maxTickMillis = doubleSetting("max-tick-ms");
+        double allocatedKbPerTick = measuredTicks == 0 ? 0 : allocatedBytes / 1024.0 / measuredTicks;
+        double maxAllocatedKbPerTick = doubleSetting("max-alloc-kb-per-tick");
+
+        System.out.printf(Locale.ROOT, "SPTools queue simulation: %d players, %d ticks (%d s), seed %s, queues %s, %s execution, %s scheduler%n",
+                players.size(), ticks, ticks / 20, settings.get("seed"), String.join(",", queueNames),
+                settings.get("execution"), settings.get("scheduler"));
+        System.out.printf(Locale.ROOT, "Players: %d joins, %d rejected, %d left while waiting, %d disconnects%n",
+                joins, rejected, abandoned, disconnects);
+        System.out.printf(Locale.ROOT, "Groups: %d players prompted, %d late confirmations, %d started, %d cancelled%n",
+                grouped, lateConfirms, started, cancelled);
+        printSeconds("Join to prompt", joinToPrompt);
+        printSeconds("Join to game", joinToGame);
+        System.out.printf(Locale.ROOT, "Tick cost (ms): mean %.3f, p50 %.3f, p99 %.3f, max %.3f over %d ticks after %s s warm-up%n",
+                tickCost.getMean() / 1000.0, tickCost.percentile(50) / 1000.0, p99Millis, tickCost.getMax() / 1000.0,
+                measuredTicks, settings.get("warmup-seconds"));
+        System.out.printf(Locale.ROOT, "Allocation: %.1f KB per tick, %.1f MB per simulated second%n",
+                allocatedKbPerTick, allocatedKbPerTick * 20.0 / 1024);
+        System.out.printf(Locale.ROOT, "Scheduler: %d tasks run, %d pending; wall time %d ms%n",
+                scheduler.getExecuted(), scheduler.getPending(), wallMillis);
+        System.out.printf(Locale.ROOT, "Outcome checksum: %016x%n", checksum);
+
+        int status = 0;
+        String expected = settings.get("expect-checksum");
+        if (!expected.isEmpty() && Long.parseUnsignedLong(expected, 16) != checksum) {
+            System.out.printf(Locale.ROOT, "FAIL: outcome checksum %016x, expected %s%n", checksum, expected);
+            status = 1;
+        }
+        if (maxAllocatedKbPerTick > 0 && allocatedKbPerTick > maxAllocatedKbPerTick) {
+            System.out.printf(Locale.ROOT, "FAIL: %.1f KB allocated per tick exceeds max-alloc-kb-per-tick %.1f%n",
+                    allocatedKbPerTick, maxAllocatedKbPerTick);
+            status = 1;
+        }
+        if (maxTickMillis > 0 && p99Millis > maxTickMillis) {
+            System.out.printf(Locale.ROOT, "FAIL: p99 tick cost %.3f ms exceeds max-tick-ms %.3f%n", p99Millis, maxTickMillis);
+            status = 1;
+        }
+        if (started == 0) {
+            System.out.println("FAIL: no group reached a game");
+            status = 1;
+        }
+        for (String problem : indexProblems) {
+            System.out.println("FAIL: " + problem);
+            status = 1;
+        }
+        return status;
+    }
+
+    private static void printSeconds(String label, LatencyHistogram histogram) {
+        System.out.printf(Locale.ROOT, "%s (s): p50 %.1f, p90 %.1f, p99 %.1f, max %.1f over %d samples%n", label,
+                histogram.percentile(50) / 20.0, histogram.percentile(90) / 20.0, histogram.percentile(99) / 20.0,
+                histogram.getMax() / 20.0, histogram.getCount());
+    }
+}
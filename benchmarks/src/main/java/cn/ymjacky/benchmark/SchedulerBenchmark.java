@@ -0,0 +1,72 @@
+package cn.ymjacky.benchmark;
+
+import cn.ymjacky.queue.GameQueue;
+import cn.ymjacky.queue.QueueGroup;
+import cn.ymjacky.queue.QueuePlayer;
+import cn.ymjacky.queue.QueueShard;
+import cn.ymjacky.task.QueueScheduler;
+import cn.ymjacky.task.RegionFanout;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// QueueScheduler.cancelGroupTasks while many groups hold live timers. Each invocation cancels one group and
+// schedules it again so the number of live timers stays constant.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class SchedulerBenchmark {
+
+    private static final int GROUP_SIZE = 2;
+
+    @Param({"1000", "10000", "50000"})
+    public int liveGroups;
+
+    private QueueScheduler scheduler;
+    private QueueGroup[] groups;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Headless.install();
+        YamlConfiguration config = new YamlConfiguration();
+        // Unbounded lanes give every scheduled group its own confirmation timer.
+        config.set("scheduler.mode", "lanes");
+        config.set("scheduler.lanes-per-queue", 0);
+        Plugin plugin = Headless.plugin(config);
+        // The timing wheel is never ticked, so the scheduler never calls back into the queue manager.
+        scheduler = new QueueScheduler(plugin, null);
+
+        int players = liveGroups * GROUP_SIZE;
+        QueueShard shard = new QueueShard(new GameQueue(Headless.queue("bench", GROUP_SIZE, players)));
+        for (Player player : Headless.players(players)) {
+            shard.join(new QueuePlayer(player));
+        }
+        List<QueueGroup> formed = shard.formFullGroups(new RegionFanout(plugin), Headless.configManager());
+        groups = formed.toArray(QueueGroup[]::new);
+        scheduler.scheduleGroups(formed);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        scheduler.shutdown();
+    }
+
+    @Benchmark
+    public int cancelAndReschedule() {
+        QueueGroup group = groups[next];
+        if (++next == groups.length) {
+            next = 0;
+        }
+        scheduler.cancelGroupTasks(group.getId());
+        scheduler.scheduleGroup(group);
+        return scheduler.getLiveTimers();
+    }
+}
@@ -0,0 +1,50 @@
+package cn.ymjacky.benchmark;
+
+import io.papermc.paper.threadedregions.scheduler.EntityScheduler;
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+
+import java.util.UUID;
+import java.util.function.BiConsumer;
+
+// One simulated player. The Player stand-in forwards chat messages to the simulation, which reacts to them the way
+// a person would; generation invalidates behaviour scheduled for a state the player has since left.
+final class SyntheticPlayer {
+
+    enum State {
+        OFFLINE, IDLE, WAITING, GROUPED, CONFIRMED, PLAYING
+    }
+
+    final UUID id;
+    final Player player;
+    State state = State.IDLE;
+    int generation;
+    int session;
+    long joinedAt;
+
+    SyntheticPlayer(UUID id, Location location, TickScheduler scheduler, BiConsumer<SyntheticPlayer, String> inbox) {
+        this.id = id;
+        String name = "sim-" + Long.toHexString(id.getLeastSignificantBits() & 0xffffffL);
+        EntityScheduler entityScheduler = scheduler.entity(() -> state != State.OFFLINE);
+        this.player = Headless.stub(Player.class, (method, args) -> switch (method.getName()) {
+            case "getUniqueId" -> id;
+            case "getName" -> name;
+            case "isOnline" -> state != State.OFFLINE;
+            case "getLocation" -> location;
+            case "getWorld" -> location.getWorld();
+            case "getScheduler" -> entityScheduler;
+            case "sendMessage" -> {
+                if (args.length == 1 && args[0] instanceof String message) {
+                    inbox.accept(this, message);
+                }
+                yield null;
+            }
+            default -> null;
+        });
+    }
+
+    void moveTo(State next) {
+        state = next;
+        generation++;
+    }
+}
@@ -0,0 +1,188 @@
+package cn.ymjacky.benchmark;
+
+import io.papermc.paper.threadedregions.scheduler.AsyncScheduler;
+import io.papermc.paper.threadedregions.scheduler.EntityScheduler;
+import io.papermc.paper.threadedregions.scheduler.GlobalRegionScheduler;
+import io.papermc.paper.threadedregions.scheduler.RegionScheduler;
+import io.papermc.paper.threadedregions.scheduler.ScheduledTask;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+// A fake tick clock behind the Folia scheduler interfaces. Every task runs on the thread that calls advance(), in
+// (due tick, submission order), so a run is repeatable. "Now" tasks run on the next tick like they do on a server,
+// async delays are rounded up to whole 50 ms ticks, and entity tasks run their retired callback once the owner is
+// offline.
+final class TickScheduler {
+
+    private static final long MILLIS_PER_TICK = 50L;
+
+    private final PriorityQueue<Task> due = new PriorityQueue<>();
+    private final GlobalRegionScheduler global = Headless.stub(GlobalRegionScheduler.class,
+            (method, args) -> submit(method, args, null));
+    private final RegionScheduler region = Headless.stub(RegionScheduler.class,
+            (method, args) -> submit(method, args, null));
+    private final AsyncScheduler async = Headless.stub(AsyncScheduler.class,
+            (method, args) -> submit(method, args, null));
+    private long tick;
+    private long sequence;
+    private long executed;
+
+    void install() {
+        install(_ -> null);
+    }
+
+    void install(Function<UUID, Player> players) {
+        Headless.install(Headless.server(global, region, async, players));
+    }
+
+    EntityScheduler entity(BooleanSupplier owner) {
+        return Headless.stub(EntityScheduler.class, (method, args) -> submit(method, args, owner));
+    }
+
+    // Runs everything due on the current tick, including tasks those tasks schedule for the same tick.
+    void advance() {
+        Task task;
+        while ((task = due.peek()) != null && task.tick <= tick) {
+            due.poll();
+            if (task.cancelled) {
+                continue;
+            }
+            task.run();
+            executed++;
+            if (task.period > 0 && !task.cancelled) {
+                task.tick = tick + task.period;
+                task.sequence = sequence++;
+                due.add(task);
+            }
+        }
+        tick++;
+    }
+
+    long getTick() {
+        return tick;
+    }
+
+    long getExecuted() {
+        return executed;
+    }
+
+    int getPending() {
+        return due.size();
+    }
+
+    private Object submit(Method method, Object[] args, BooleanSupplier owner) {
+        if (method.getName().equals("cancelTasks")) {
+            Plugin plugin = (Plugin) args[0];
+            due.forEach(task -> task.cancelled |= task.plugin == plugin);
+            return null;
+        }
+        Object action = null;
+        Runnable retired = null;
+        List<Long> times = new ArrayList<>(2);
+        TimeUnit unit = null;
+        for (Object arg : args) {
+            if (arg instanceof Runnable || arg instanceof Consumer<?>) {
+                if (action == null) {
+                    action = arg;
+                } else {
+                    retired = (Runnable) arg;
+                }
+            } else if (arg instanceof Long value) {
+                times.add(value);
+            } else if (arg instanceof TimeUnit value) {
+                unit = value;
+            }
+        }
+        if (action == null) {
+            return null;
+        }
+        long delay = times.isEmpty() ? 1L : ticks(times.get(0), unit);
+        long period = method.getName().equals("runAtFixedRate") ? ticks(times.get(1), unit) : 0L;
+        Task task = new Task((Plugin) args[0], action, retired, owner, period);
+        task.tick = tick + delay;
+        task.sequence = sequence++;
+        due.add(task);
+        if (method.getReturnType() == boolean.class) {
+            return Boolean.TRUE;
+        }
+        return method.getReturnType() == ScheduledTask.class ? task.handle() : null;
+    }
+
+    private static long ticks(long time, TimeUnit unit) {
+        long ticks = unit == null ? time : Math.ceilDiv(unit.toMillis(time), MILLIS_PER_TICK);
+        return Math.max(1L, ticks);
+    }
+
+    private static final class Task implements Comparable<Task> {
+
+        private final Plugin plugin;
+        private final Object action;
+        private final Runnable retired;
+        private final BooleanSupplier owner;
+        private final long period;
+        private ScheduledTask handle;
+        private long tick;
+        private long sequence;
+        private boolean cancelled;
+
+        private Task(Plugin plugin, Object action, Runnable retired, BooleanSupplier owner, long period) {
+            this.plugin = plugin;
+            this.action = action;
+            this.retired = retired;
+            this.owner = owner;
+            this.period = period;
+        }
+
+        // Most callers drop the handle, so the proxy is only built when one is asked for.
+        private ScheduledTask handle() {
+            if (handle == null) {
+                handle = Headless.stub(ScheduledTask.class, (method, _) -> switch (method.getName()) {
+                    case "cancel" -> {
+                        if (cancelled) {
+                            yield ScheduledTask.CancelledState.CANCELLED_ALREADY;
+                        }
+                        cancelled = true;
+                        yield ScheduledTask.CancelledState.CANCELLED_BY_CALLER;
+                    }
+                    case "isCancelled" -> cancelled;
+                    case "isRepeatingTask" -> period > 0;
+                    case "getOwningPlugin" -> plugin;
+                    default -> null;
+                });
+            }
+            return handle;
+        }
+
+        @SuppressWarnings("unchecked")
+        private void run() {
+            if (owner != null && !owner.getAsBoolean()) {
+                cancelled = true;
+                if (retired != null) {
+                    retired.run();
+                }
+                return;
+            }
+            if (action instanceof Runnable runnable) {
+                runnable.run();
+            } else {
+                ((Consumer<ScheduledTask>) action).accept(handle());
+            }
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            int byTick = Long.compare(tick, other.tick);
+            return byTick != 0 ? byTick : Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -41,7 +41,7 @@ public class SPToolsPlugin extends JavaPlugin {
         boolean hitokotoEnabled = getConfig().getBoolean("hitokoto-enabled");
 
         if (queueEnabled) {
-            queueManager = new QueueManager(this);
+            queueManager = new QueueManager(this, configManager);
             registerQueueCommands();
             registerQueueListeners();
             getLogger().info("Queue system enabled.");
@@ -68,7 +68,9 @@ public class SPToolsPlugin extends JavaPlugin {
     }
 
     private void registerQueueCommands() {
-        Objects.requireNonNull(getCommand("queue")).setExecutor(new QueueCommand(queueManager));
+        QueueCommand queueCommand = new QueueCommand(queueManager);
+        Objects.requireNonNull(getCommand("queue")).setExecutor(queueCommand);
+        getServer().getPluginManager().registerEvents(queueCommand, this);
         Objects.requireNonNull(getCommand("confirm")).setExecutor(new ConfirmCommand(queueManager));
         Objects.requireNonNull(getCommand("leavequeue")).setExecutor(new LeaveQueueCommand(queueManager));
     }
@@ -93,4 +95,8 @@ public class SPToolsPlugin extends JavaPlugin {
     public ConfigurationManager getConfigManager() {
         return configManager;
     }
+
+    public QueueManager getQueueManager() {
+        return queueManager;
+    }
 }
\ No newline at end of file
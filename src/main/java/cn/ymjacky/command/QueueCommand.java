@@ -1,25 +1,51 @@
 package cn.ymjacky.command;
 
 import cn.ymjacky.SPToolsPlugin;
+import org.bukkit.Bukkit;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
 import org.bukkit.command.TabCompleter;
 import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerQuitEvent;
 import cn.ymjacky.manager.ConfigurationManager;
+import cn.ymjacky.queue.PartyInvites;
 import cn.ymjacky.queue.QueueManager;
+import cn.ymjacky.task.QueueHud;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 
-public class QueueCommand implements CommandExecutor, TabCompleter {
+public class QueueCommand implements CommandExecutor, TabCompleter, Listener {
 
     private final QueueManager queueManager;
     private final ConfigurationManager configManager;
+    private final PartyInvites partyInvites;
+    private final int inviteSeconds;
 
     public QueueCommand(QueueManager queueManager) {
         this.queueManager = queueManager;
         this.configManager = SPToolsPlugin.getInstance().getConfigManager();
+        this.inviteSeconds = Math.max(1, SPToolsPlugin.getInstance().getConfig().getInt("party.invite-seconds", 60));
+        this.partyInvites = new PartyInvites(inviteSeconds * 1000L);
+        Bukkit.getAsyncScheduler().runAtFixedRate(SPToolsPlugin.getInstance(), _ -> expireInvites(), 1L, 1L, TimeUnit.SECONDS);
+    }
+
+    // A player who quits takes their invites with them, so nobody waits on an answer that can't come.
+    @EventHandler
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        for (PartyInvites.Invite invite : partyInvites.drop(event.getPlayer().getUniqueId())) {
+            notifyParty(invite, configManager.getMessage("queue.party.cancelled"));
+        }
+    }
+
+    private void expireInvites() {
+        for (PartyInvites.Invite invite : partyInvites.expire(System.currentTimeMillis())) {
+            notifyParty(invite, configManager.getMessage("queue.party.expired"));
+        }
     }
 
     @Override
@@ -39,11 +65,51 @@ public class QueueCommand implements CommandExecutor, TabCompleter {
         switch (subCommand) {
             case "join":
                 if (args.length < 2) {
-                    player.sendMessage("§c用法: /queue join <队列名>");
+                    player.sendMessage("§c用法: /queue join <队列名>[,<队列名>...]");
                     player.sendMessage("§7可用队列: " + getAvailableQueuesAsString());
                     return true;
                 }
-                queueManager.joinQueue(player, args[1]);
+                for (String name : args[1].split(",")) {
+                    if (!name.isBlank()) {
+                        queueManager.joinQueue(player, name.trim());
+                    }
+                }
+                break;
+
+            case "party":
+                if (!player.hasPermission("sptools.queue.party")) {
+                    player.sendMessage("§c你没有权限使用此命令!");
+                    return true;
+                }
+                if (args.length == 2 && (args[1].equalsIgnoreCase("accept") || args[1].equalsIgnoreCase("deny"))) {
+                    answerInvite(player, args[1].equalsIgnoreCase("accept"));
+                    return true;
+                }
+                if (args.length < 3) {
+                    player.sendMessage("§c用法: /queue party <队列名> <玩家...>");
+                    player.sendMessage("§c用法: /queue party accept|deny");
+                    return true;
+                }
+                if (configManager.getQueueConfig(args[1]) == null) {
+                    player.sendMessage(configManager.getMessage("queue.join.not-found", "queue", args[1]));
+                    return true;
+                }
+                List<Player> invited = new ArrayList<>();
+                for (int i = 2; i < args.length; i++) {
+                    Player member = Bukkit.getPlayerExact(args[i]);
+                    if (member == null) {
+                        player.sendMessage("§c玩家 '" + args[i] + "' 不在线!");
+                        return true;
+                    }
+                    if (member != player && !invited.contains(member)) {
+                        invited.add(member);
+                    }
+                }
+                if (invited.isEmpty()) {
+                    player.sendMessage("§c用法: /queue party <队列名> <玩家...>");
+                    return true;
+                }
+                sendInvite(player, args[1], invited);
                 break;
 
             case "leave":
@@ -73,12 +139,69 @@ public class QueueCommand implements CommandExecutor, TabCompleter {
                     player.sendMessage("§e倒计时: §7" + config.getCountdownTime() + "秒");
                     player.sendMessage("§e缓冲时间: §7" + config.getBufferTime()/20 + "秒");
                     player.sendMessage("§e需要确认: §7" + (config.requiresConfirmation() ? "是" : "否"));
+                    var instances = queueManager.getInstances(queueName);
+                    if (config.getMaxInstances() > 1) {
+                        player.sendMessage("§e实例: §7" + instances.size() + "/" + config.getMaxInstances());
+                        for (var instance : instances) {
+                            player.sendMessage("§7  #" + instance.getQueue().getInstance() + ": §a"
+                                    + instance.getQueue().getPlayerCount() + "§7/§c" + config.getCapacity()
+                                    + " §7等待, " + instance.getGroups().size() + " 个队伍进行中");
+                        }
+                    }
+                    var federation = queueManager.getFederation();
+                    if (federation != null && federation.isStarted()) {
+                        String owner = federation.ownerOf(queueName);
+                        player.sendMessage("§e持有节点: §7" + (owner == null ? "同步中" : owner)
+                                + " §8(本节点 " + federation.getNodeId() + ", 在线节点 " + (federation.getLiveNodes().size() + 1)
+                                + ", 转发中 " + federation.getForwardedCount() + " 人)");
+                    }
+                    var pool = queueManager.getArenaPool(config);
+                    player.sendMessage("§e竞技场利用率: §7" + String.format("%.1f%%", pool.getUtilization() * 100)
+                            + " §8(无空位拒绝 " + pool.getRejected() + " 次)");
+                    var readyToGame = queueManager.getReadyToGame();
+                    if (readyToGame.getCount() > 0) {
+                        player.sendMessage("§e确认到入局 (全部队列): §7p50 " + readyToGame.percentile(50)
+                                + "ms / p99 " + readyToGame.percentile(99) + "ms");
+                    }
+                    for (var target : pool.getTargets()) {
+                        String state = target.failing() ? "§c故障" : target.isSaturated() ? "§6满载" : "§a正常";
+                        player.sendMessage("§7  " + target.name() + ": " + target.load() + "/"
+                                + (target.capacity() > 0 ? target.capacity() : "∞") + " " + state
+                                + " §8(已分配 " + target.dispatched() + ", 失败 " + target.failed() + ")");
+                    }
+                    // Each overflow instance has its own line, rates and lanes, so the figures are per instance.
+                    for (var shard : instances) {
+                        var queue = shard.getQueue();
+                        if (instances.size() > 1) {
+                            player.sendMessage("§6--- 实例 #" + queue.getInstance() + " ---");
+                        }
+                        player.sendMessage("§e当前排队: §7" + queue.getPlayerCount() + " 人, 新加入预计等待 "
+                                + QueueHud.formatWait(queue.estimateJoinWait()));
+                        player.sendMessage("§e到达速率: §7" + formatRate(queue.getArrivalsPerMinute()) + " 人/分钟"
+                                + ", 成组速率: " + formatRate(queue.getGroupsPerMinute()) + " 组/分钟");
+                        player.sendMessage("§e装箱效率: §7" + String.format("%.1f%%", queue.getPackingEfficiency() * 100)
+                                + " §8(" + queue.getPackedGroups() + " 组)");
+                        for (var lane : queue.getLanes()) {
+                            player.sendMessage("§e通道 " + lane.getName() + " §8(权重 " + lane.getWeight() + ")§e: §7"
+                                    + lane.getSize() + " 人等待, 已出队 " + lane.getServed()
+                                    + ", 等待 p50 " + lane.getWaits().percentile(50) / 1000 + "秒"
+                                    + " / p99 " + lane.getWaits().percentile(99) / 1000 + "秒");
+                        }
+                    }
                 } else {
                     player.sendMessage("§c队列 '" + queueName + "' 不存在!");
                     player.sendMessage("§7可用队列: " + getAvailableQueuesAsString());
                 }
                 break;
 
+            case "stats":
+                if (!player.hasPermission("sptools.queue.stats")) {
+                    player.sendMessage("§c你没有权限使用此命令!");
+                    return true;
+                }
+                sendStats(player, args.length >= 2 ? args[1] : null);
+                break;
+
             default:
                 sendUsage(player);
                 break;
@@ -87,6 +210,124 @@ public class QueueCommand implements CommandExecutor, TabCompleter {
         return true;
     }
 
+    private void sendInvite(Player leader, String queueName, List<Player> invited) {
+        PartyInvites.Invite invite = partyInvites.invite(leader.getUniqueId(), queueName,
+                invited.stream().map(Player::getUniqueId).toList());
+        if (invite == null) {
+            for (Player member : invited) {
+                PartyInvites.Invite other = partyInvites.pending(member.getUniqueId());
+                if (other != null && !other.getLeader().equals(leader.getUniqueId())) {
+                    leader.sendMessage(configManager.getMessage("queue.party.member-invited", "player", member.getName()));
+                    return;
+                }
+            }
+            return;
+        }
+        String message = configManager.getMessage("queue.party.invited",
+                "leader", leader.getName(), "queue", queueName, "seconds", inviteSeconds);
+        for (Player member : invited) {
+            member.sendMessage(message);
+        }
+        leader.sendMessage(configManager.getMessage("queue.party.invite-sent",
+                "count", invite.getMembers().size(), "queue", queueName));
+    }
+
+    // The party joins once the last invited player accepts; one refusal or an offline member drops the invite.
+    private void answerInvite(Player player, boolean accepted) {
+        PartyInvites.Invite invite = partyInvites.pending(player.getUniqueId());
+        if (invite == null) {
+            player.sendMessage(configManager.getMessage("queue.party.no-invite"));
+            return;
+        }
+        if (invite.isExpired(System.currentTimeMillis())) {
+            partyInvites.remove(invite);
+            player.sendMessage(configManager.getMessage("queue.party.expired"));
+            return;
+        }
+        if (!accepted) {
+            partyInvites.remove(invite);
+            notifyParty(invite, configManager.getMessage("queue.party.denied", "player", player.getName()));
+            return;
+        }
+        boolean complete = partyInvites.accept(invite, player.getUniqueId());
+        notifyParty(invite, configManager.getMessage("queue.party.accepted", "player", player.getName(),
+                "accepted", invite.getAcceptedCount(), "total", invite.getMembers().size()));
+        if (!complete) {
+            return;
+        }
+        List<Player> party = new ArrayList<>();
+        List<UUID> partyIds = new ArrayList<>();
+        partyIds.add(invite.getLeader());
+        partyIds.addAll(invite.getMembers());
+        for (UUID memberId : partyIds) {
+            Player member = Bukkit.getPlayer(memberId);
+            if (member == null || !member.isOnline()) {
+                notifyParty(invite, configManager.getMessage("queue.party.cancelled"));
+                return;
+            }
+            party.add(member);
+        }
+        queueManager.joinParty(party, invite.getQueue());
+    }
+
+    private void notifyParty(PartyInvites.Invite invite, String message) {
+        Player leader = Bukkit.getPlayer(invite.getLeader());
+        if (leader != null) {
+            leader.sendMessage(message);
+        }
+        for (UUID memberId : invite.getMembers()) {
+            Player member = Bukkit.getPlayer(memberId);
+            if (member != null) {
+                member.sendMessage(message);
+            }
+        }
+    }
+
+    private void sendStats(Player player, String queueName) {
+        List<String> names = new ArrayList<>(new TreeSet<>(queueManager.getQueueNames()));
+        if (queueName != null) {
+            if (!names.contains(queueName.toLowerCase())) {
+                player.sendMessage("§c队列 '" + queueName + "' 不存在!");
+                return;
+            }
+            names = List.of(queueName.toLowerCase());
+        }
+        long now = System.currentTimeMillis();
+        player.sendMessage("§6=== 队列统计 ===");
+        for (String name : names) {
+            var instances = queueManager.getInstances(name);
+            if (instances.isEmpty()) {
+                continue;
+            }
+            int depth = 0;
+            int activeGroups = 0;
+            for (var instance : instances) {
+                depth += instance.getQueue().getPlayerCount();
+                activeGroups += instance.getGroups().size();
+            }
+            var metrics = instances.getFirst().getQueue().getMetrics();
+            var joinToGroup = metrics.getJoinToGroup();
+            var confirmation = metrics.getConfirmation();
+            player.sendMessage("§e" + name + "§7: 排队 " + depth + " 人, 进行中 " + activeGroups + " 组, 近一分钟成组 "
+                    + metrics.getGroupsLastMinute(now) + " 组 §8(累计加入 " + metrics.getJoined() + ", 成组 " + metrics.getFormed() + ")");
+            player.sendMessage("§7  加入到成组: p50 " + formatSeconds(joinToGroup.percentile(50))
+                    + " / p99 " + formatSeconds(joinToGroup.percentile(99)) + " §8(" + joinToGroup.getCount() + " 人)");
+            player.sendMessage("§7  确认耗时: p50 " + formatSeconds(confirmation.percentile(50))
+                    + " / p99 " + formatSeconds(confirmation.percentile(99)) + " §8(" + confirmation.getCount() + " 次)");
+            player.sendMessage("§7  结果: 开局 " + metrics.getStarted() + ", 超时 " + metrics.getTimedOut()
+                    + String.format(" (%.1f%%)", metrics.getTimeoutRatio() * 100) + ", 取消 " + metrics.getCancelled()
+                    + String.format(" (%.1f%%)", metrics.getCancelRatio() * 100));
+        }
+    }
+
+    private static String formatSeconds(long millis) {
+        return String.format("%.1f秒", millis / 1000.0);
+    }
+
+    private static String formatRate(double perMinute) {
+        return perMinute < 0 ? "--" : String.format("%.1f", perMinute);
+    }
+
     private String getAvailableQueuesAsString() {
         Set<String> queueNames = configManager.getAllQueueConfigs().keySet();
         return String.join("§7, §e", queueNames);
@@ -94,10 +335,15 @@ public class QueueCommand implements CommandExecutor, TabCompleter {
 
     private void sendUsage(Player player) {
         player.sendMessage("§6=== SPTools 队列系统 ===");
-        player.sendMessage("§e/queue join <队列名> §7- 加入队列");
+        player.sendMessage("§e/queue join <队列名>[,<队列名>...] §7- 加入队列，可用逗号同时加入多个队列");
+        player.sendMessage("§e/queue party <队列名> <玩家...> §7- 邀请玩家组队，全部接受后一同加入队列");
+        player.sendMessage("§e/queue party accept|deny §7- 接受或拒绝组队邀请");
         player.sendMessage("§e/queue leave §7- 离开当前队列");
         player.sendMessage("§e/queue list §7- 查看可用队列");
         player.sendMessage("§e/queue info <队列名> §7- 查看队列信息");
+        if (player.hasPermission("sptools.queue.stats")) {
+            player.sendMessage("§e/queue stats [队列名] §7- 查看队列统计");
+        }
         player.sendMessage("§e/ready §7- 确认参与");
         player.sendMessage("§e/leavequeue §7- 离开队列 (快捷命令)");
     }
@@ -107,14 +353,22 @@ public class QueueCommand implements CommandExecutor, TabCompleter {
         List<String> completions = new ArrayList<>();
 
         if (args.length == 1) {
-            String[] subCommands = {"join", "leave", "list", "info"};
+            String[] subCommands = {"join", "party", "leave", "list", "info", "stats"};
             for (String subCmd : subCommands) {
                 if (subCmd.startsWith(args[0].toLowerCase())) {
                     completions.add(subCmd);
                 }
             }
         } else if (args.length == 2) {
-            if (args[0].equalsIgnoreCase("join") || args[0].equalsIgnoreCase("info")) {
+            if (args[0].equalsIgnoreCase("party")) {
+                for (String answer : new String[]{"accept", "deny"}) {
+                    if (answer.startsWith(args[1].toLowerCase())) {
+                        completions.add(answer);
+                    }
+                }
+            }
+            if (args[0].equalsIgnoreCase("join") || args[0].equalsIgnoreCase("party") || args[0].equalsIgnoreCase("info")
+                    || args[0].equalsIgnoreCase("stats")) {
                 for (String queueName : configManager.getAllQueueConfigs().keySet()) {
                     if (queueName.toLowerCase().startsWith(args[1].toLowerCase())) {
                         completions.add(queueName);
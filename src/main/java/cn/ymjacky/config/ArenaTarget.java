@@ -0,0 +1,18 @@
+package cn.ymjacky.config;
+
+public class ArenaTarget {
+    private final String name;
+    private final String command;
+    private final int capacity;
+
+    public ArenaTarget(String name, String command, int capacity) {
+        this.name = name;
+        this.command = command;
+        this.capacity = Math.max(0, capacity);
+    }
+
+    // Getters
+    public String getName() { return name; }
+    public String getCommand() { return command; }
+    public int getCapacity() { return capacity; }
+}
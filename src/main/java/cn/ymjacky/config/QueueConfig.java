@@ -1,35 +1,66 @@
 package cn.ymjacky.config;
 
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 public class QueueConfig {
     private final String name;
     private final int maxPlayers;
     private final int minPlayers;
+    private final int capacity;
+    private final int maxInstances;
     private final String gameCommand;
     private final int confirmationTime;
     private final int countdownTime;
     private final int bufferTime;
     private final boolean requireConfirmation;
+    private final boolean autoStart;
+    private final int relaxAfter;
+    private final int relaxInterval;
+    private final Map<String, Integer> laneWeights;
+    private final List<ArenaTarget> arenas;
+    private final int arenaHoldSeconds;
 
-    public QueueConfig(String name, int maxPlayers, int minPlayers, String gameCommand,
+    public QueueConfig(String name, int maxPlayers, int minPlayers, int capacity, int maxInstances, String gameCommand,
                        int confirmationTime, int countdownTime, int bufferTime,
-                       boolean requireConfirmation) {
+                       boolean requireConfirmation, boolean autoStart,
+                       int relaxAfter, int relaxInterval, Map<String, Integer> laneWeights,
+                       List<ArenaTarget> arenas, int arenaHoldSeconds) {
         this.name = name;
         this.maxPlayers = maxPlayers;
         this.minPlayers = minPlayers;
+        this.capacity = Math.max(capacity, maxPlayers);
+        this.maxInstances = Math.max(1, maxInstances);
         this.gameCommand = gameCommand;
         this.confirmationTime = confirmationTime;
         this.countdownTime = countdownTime;
         this.bufferTime = bufferTime;
         this.requireConfirmation = requireConfirmation;
+        this.autoStart = autoStart;
+        this.relaxAfter = relaxAfter;
+        this.relaxInterval = relaxInterval;
+        this.laneWeights = Collections.unmodifiableMap(new LinkedHashMap<>(laneWeights));
+        this.arenas = arenas.isEmpty() ? List.of(new ArenaTarget(name, gameCommand, 0)) : List.copyOf(arenas);
+        this.arenaHoldSeconds = arenaHoldSeconds;
     }
 
     // Getters
     public String getName() { return name; }
     public int getMaxPlayers() { return maxPlayers; }
     public int getMinPlayers() { return minPlayers; }
+    public int getCapacity() { return capacity; }
+    public int getMaxInstances() { return maxInstances; }
     public String getGameCommand() { return gameCommand; }
     public int getConfirmationTime() { return confirmationTime; }
     public int getCountdownTime() { return countdownTime; }
     public int getBufferTime() { return bufferTime; }
     public boolean requiresConfirmation() { return requireConfirmation; }
-}
\ No newline at end of file
+    public boolean isAutoStart() { return autoStart; }
+    public int getRelaxAfter() { return relaxAfter; }
+    public int getRelaxInterval() { return relaxInterval; }
+    public Map<String, Integer> getLaneWeights() { return laneWeights; }
+    public List<ArenaTarget> getArenas() { return arenas; }
+    public int getArenaHoldSeconds() { return arenaHoldSeconds; }
+}
@@ -0,0 +1,415 @@
+package cn.ymjacky.federation;
+
+import cn.ymjacky.queue.QueueManager;
+import cn.ymjacky.queue.QueuePlayer;
+import cn.ymjacky.task.MpscMailbox;
+import cn.ymjacky.task.RegionFanout;
+import io.papermc.paper.threadedregions.scheduler.ScheduledTask;
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+
+/**
+ * Shares queues between lobby nodes: every queue has exactly one owner node that holds its waiting line,
+ * and the other nodes forward their players' joins, leaves and confirmations there in per-tick batches.
+ * <p>
+ * An owner keeps its queues for as long as it keeps sending heartbeats. When it goes silent for
+ * {@code node-timeout-seconds}, the live nodes pick a new owner by rendezvous hashing and re-forward
+ * their players with the original join time, so the new owner rebuilds the line in the same order.
+ * <p>
+ * Forwarded players are not written to either node's journal: the origin only keeps them in memory and the owner
+ * does not journal remote players. If both crash, or the origin crashes, those players lose their place.
+ */
+public class FederationManager {
+
+    private final Plugin plugin;
+    private final QueueManager queueManager;
+    private final String nodeId;
+    private final int batchSize;
+    private final long heartbeatTicks;
+    private final long nodeTimeoutMillis;
+    private final Map<String, Long> lastSeen;
+    private final Map<String, Map<String, Long>> claims;
+    private final Map<String, Long> ownClaims;
+    private final Map<String, String> owners;
+    private final Map<String, MpscMailbox<FederationMessage>> outboxes;
+    private final Map<UUID, FederationMessage.Join> forwarded;
+    private final Map<Long, PendingCommand> pendingCommands;
+    private final AtomicLong nextCallback;
+    private final LongAdder sent;
+    private final LongAdder received;
+    private final LongAdder batches;
+    private final LongAdder failovers;
+    private volatile FederationTransport transport;
+    private volatile long startedAt;
+    private ScheduledTask tickTask;
+    private long ticks;
+
+    public FederationManager(Plugin plugin, QueueManager queueManager, String nodeId, int batchSize,
+                             long heartbeatTicks, long nodeTimeoutMillis) {
+        this.plugin = plugin;
+        this.queueManager = queueManager;
+        this.nodeId = nodeId;
+        this.batchSize = Math.max(1, batchSize);
+        this.heartbeatTicks = Math.max(1, heartbeatTicks);
+        this.nodeTimeoutMillis = Math.max(1, nodeTimeoutMillis);
+        this.lastSeen = new ConcurrentHashMap<>();
+        this.claims = new ConcurrentHashMap<>();
+        this.ownClaims = new ConcurrentHashMap<>();
+        this.owners = new ConcurrentHashMap<>();
+        this.outboxes = new ConcurrentHashMap<>();
+        this.forwarded = new ConcurrentHashMap<>();
+        this.pendingCommands = new ConcurrentHashMap<>();
+        this.nextCallback = new AtomicLong();
+        this.sent = new LongAdder();
+        this.received = new LongAdder();
+        this.batches = new LongAdder();
+        this.failovers = new LongAdder();
+    }
+
+    public synchronized void start(FederationTransport transport) {
+        if (this.transport != null) {
+            throw new IllegalStateException("联邦传输已启动");
+        }
+        transport.start(nodeId, this::receive);
+        this.startedAt = System.currentTimeMillis();
+        this.transport = transport;
+        this.tickTask = Bukkit.getGlobalRegionScheduler().runAtFixedRate(plugin, _ -> tick(), 1L, 1L);
+        plugin.getLogger().info("队列联邦已启动，本节点: " + nodeId);
+    }
+
+    public synchronized void shutdown() {
+        FederationTransport current = transport;
+        if (current == null) {
+            return;
+        }
+        if (tickTask != null) {
+            tickTask.cancel();
+        }
+        flush();
+        current.broadcast(new FederationMessage.Heartbeat(nodeId, System.currentTimeMillis(), Map.of(), true));
+        current.close();
+        transport = null;
+    }
+
+    // Null while the node is still listening for heartbeats after start-up and cannot tell who owns what yet.
+    // Until any peer has been heard from, the node claims the queue itself rather than refusing joins; a peer that
+    // turns up with an older claim takes the queue back through the usual owner change, which re-homes the players.
+    public String ownerOf(String queueName) {
+        if (transport == null) {
+            return nodeId;
+        }
+        String queue = queueName.toLowerCase();
+        long now = System.currentTimeMillis();
+        if (now - startedAt < nodeTimeoutMillis) {
+            if (!lastSeen.isEmpty()) {
+                return owners.get(queue);
+            }
+            ownClaims.putIfAbsent(queue, now);
+            owners.putIfAbsent(queue, nodeId);
+        }
+        return owners.get(queue);
+    }
+
+    public boolean isForwarded(UUID playerId) {
+        return forwarded.containsKey(playerId);
+    }
+
+    public void forwardJoin(String queueName, String partyId, List<FederationMessage.Member> members, long joinedAt) {
+        forward(queueName, partyId, members, joinedAt, false);
+    }
+
+    // Hands players this node no longer owns to the new owner; they keep their place through the original join time.
+    public void rehome(String queueName, String partyId, List<FederationMessage.Member> members, long joinedAt) {
+        forward(queueName, partyId, members, joinedAt, true);
+    }
+
+    private void forward(String queueName, String partyId, List<FederationMessage.Member> members, long joinedAt,
+                         boolean rehomed) {
+        String queue = queueName.toLowerCase();
+        FederationMessage.Join join = new FederationMessage.Join(nodeId, queue, partyId, List.copyOf(members),
+                joinedAt, rehomed);
+        for (FederationMessage.Member member : members) {
+            forwarded.put(member.playerId(), join);
+        }
+        send(owners.get(queue), join);
+    }
+
+    public boolean forwardLeave(UUID playerId) {
+        FederationMessage.Join join = forwarded.remove(playerId);
+        if (join == null) {
+            return false;
+        }
+        send(owners.get(join.queue()), new FederationMessage.Leave(nodeId, playerId));
+        return true;
+    }
+
+    public boolean forwardConfirm(UUID playerId) {
+        FederationMessage.Join join = forwarded.get(playerId);
+        if (join == null) {
+            return false;
+        }
+        send(owners.get(join.queue()), new FederationMessage.Confirm(nodeId, playerId));
+        return true;
+    }
+
+    // Called once a forwarded join has landed in a queue on this node after it took the queue over.
+    public void accepted(UUID playerId) {
+        forwarded.remove(playerId);
+    }
+
+    // The owner could not place a forwarded join; the origin stops tracking it and the players are told why.
+    public void reject(FederationMessage.Join join, String message) {
+        for (FederationMessage.Member member : join.members()) {
+            reply(join.origin(), member.playerId(), message);
+            if (join.origin().equals(nodeId)) {
+                forwarded.remove(member.playerId());
+            } else {
+                send(join.origin(), new FederationMessage.Released(nodeId, member.playerId()));
+            }
+        }
+    }
+
+    public void released(QueuePlayer queuePlayer) {
+        if (queuePlayer.isRemote()) {
+            send(queuePlayer.getNode(), new FederationMessage.Released(nodeId, queuePlayer.getPlayerId()));
+        } else {
+            forwarded.remove(queuePlayer.getPlayerId());
+        }
+    }
+
+    public void reply(String node, UUID playerId, String message) {
+        if (nodeId.equals(node)) {
+            Player player = Bukkit.getPlayer(playerId);
+            if (player != null) {
+                queueManager.getFanout().sendTo(player, RegionFanout.Payload.of(message));
+            }
+            return;
+        }
+        send(node, new FederationMessage.Deliver(nodeId, playerId, List.of(message), null, null, null, 0L));
+    }
+
+    // RegionFanout's sink for remote players: the payload is shown by the node the player is connected to.
+    public void deliver(QueuePlayer queuePlayer, RegionFanout.Payload payload) {
+        long callbackId = 0L;
+        if (payload.commandResult() != null) {
+            callbackId = nextCallback.incrementAndGet();
+            pendingCommands.put(callbackId, new PendingCommand(queuePlayer.getNode(), payload.commandResult()));
+        }
+        send(queuePlayer.getNode(), new FederationMessage.Deliver(nodeId, queuePlayer.getPlayerId(),
+                payload.messages(), payload.actionBar(), payload.sound(), payload.command(), callbackId));
+    }
+
+    private void send(String node, FederationMessage message) {
+        if (node == null || transport == null) {
+            return;
+        }
+        if (node.equals(nodeId)) {
+            receive(List.of(message));
+            return;
+        }
+        outboxes.computeIfAbsent(node, _ -> new MpscMailbox<>()).offer(message);
+    }
+
+    private void tick() {
+        try {
+            if (ticks++ % heartbeatTicks == 0) {
+                transport.broadcast(new FederationMessage.Heartbeat(nodeId, System.currentTimeMillis(),
+                        Map.copyOf(ownClaims), false));
+                if (System.currentTimeMillis() - startedAt >= nodeTimeoutMillis) {
+                    refreshOwners();
+                }
+            }
+            flush();
+        } catch (RuntimeException e) {
+            plugin.getLogger().log(Level.SEVERE, "处理队列联邦时出错", e);
+        }
+    }
+
+    private void flush() {
+        FederationTransport current = transport;
+        if (current == null) {
+            return;
+        }
+        List<FederationMessage> batch = new ArrayList<>(batchSize);
+        for (Map.Entry<String, MpscMailbox<FederationMessage>> entry : outboxes.entrySet()) {
+            while (entry.getValue().drain(batch::add, batchSize) > 0) {
+                current.send(entry.getKey(), batch);
+                sent.add(batch.size());
+                batches.increment();
+                batch.clear();
+            }
+        }
+    }
+
+    private void receive(List<FederationMessage> batch) {
+        long now = System.currentTimeMillis();
+        for (FederationMessage message : batch) {
+            received.increment();
+            if (!message.origin().equals(nodeId)) {
+                lastSeen.put(message.origin(), now);
+            }
+            switch (message) {
+                case FederationMessage.Heartbeat heartbeat -> {
+                    if (heartbeat.leaving()) {
+                        lastSeen.put(heartbeat.origin(), 0L);
+                    } else {
+                        claims.put(heartbeat.origin(), heartbeat.claims());
+                    }
+                }
+                case FederationMessage.Join join -> queueManager.federatedJoin(join);
+                case FederationMessage.Leave leave -> queueManager.federatedLeave(leave.playerId());
+                case FederationMessage.Confirm confirm -> queueManager.federatedConfirm(confirm.origin(), confirm.playerId());
+                case FederationMessage.Deliver deliver -> deliverLocal(deliver);
+                case FederationMessage.CommandResult result -> {
+                    PendingCommand pending = pendingCommands.remove(result.callbackId());
+                    if (pending != null) {
+                        pending.result().accept(result.success());
+                    }
+                }
+                case FederationMessage.Released released -> forwarded.remove(released.playerId());
+            }
+        }
+    }
+
+    private void deliverLocal(FederationMessage.Deliver deliver) {
+        Consumer<Boolean> result = deliver.callbackId() == 0L ? null
+                : success -> send(deliver.origin(), new FederationMessage.CommandResult(nodeId, deliver.callbackId(), success));
+        Player player = Bukkit.getPlayer(deliver.playerId());
+        if (player == null) {
+            if (result != null) {
+                result.accept(false);
+            }
+            return;
+        }
+        queueManager.getFanout().sendTo(player, new RegionFanout.Payload(deliver.messages(), deliver.actionBar(),
+                deliver.sound(), deliver.command(), result));
+    }
+
+    private void refreshOwners() {
+        long now = System.currentTimeMillis();
+        List<String> dead = new ArrayList<>();
+        lastSeen.entrySet().removeIf(entry -> {
+            if (now - entry.getValue() < nodeTimeoutMillis) {
+                return false;
+            }
+            dead.add(entry.getKey());
+            return true;
+        });
+        for (String node : dead) {
+            claims.remove(node);
+            outboxes.remove(node);
+            pendingCommands.values().removeIf(pending -> {
+                if (!pending.node().equals(node)) {
+                    return false;
+                }
+                pending.result().accept(false);
+                return true;
+            });
+            queueManager.dropNode(node);
+            plugin.getLogger().warning("联邦节点失联: " + node);
+        }
+
+        Set<String> live = new TreeSet<>(lastSeen.keySet());
+        live.add(nodeId);
+        for (String queue : queueManager.getQueueNames()) {
+            String owner = claimant(queue, live);
+            if (owner == null) {
+                owner = rendezvous(queue, live);
+                if (owner.equals(nodeId)) {
+                    ownClaims.put(queue, now);
+                }
+            } else if (!owner.equals(nodeId)) {
+                ownClaims.remove(queue);
+            }
+            String previous = owners.put(queue, owner);
+            if (!owner.equals(previous)) {
+                ownerChanged(queue, previous, owner);
+            }
+        }
+    }
+
+    private void ownerChanged(String queue, String previous, String owner) {
+        if (previous == null) {
+            return;
+        }
+        failovers.increment();
+        plugin.getLogger().info("队列 " + queue + " 的持有节点由 " + previous + " 变更为 " + owner);
+        Set<FederationMessage.Join> resend = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (FederationMessage.Join join : forwarded.values()) {
+            if (join.queue().equals(queue)) {
+                resend.add(join);
+            }
+        }
+        for (FederationMessage.Join join : resend) {
+            send(owner, new FederationMessage.Join(nodeId, queue, join.partyId(), join.members(), join.joinedAt(), true));
+        }
+        if (previous.equals(nodeId)) {
+            queueManager.rehome(queue);
+        }
+    }
+
+    // The earliest live claim wins, so two nodes that claimed the same queue at once settle on one owner.
+    private String claimant(String queue, Set<String> live) {
+        String owner = null;
+        long ownerClaimedAt = Long.MAX_VALUE;
+        for (String node : live) {
+            Long claimedAt = node.equals(nodeId) ? ownClaims.get(queue) : claims.getOrDefault(node, Map.of()).get(queue);
+            if (claimedAt != null && (owner == null || claimedAt < ownerClaimedAt
+                    || claimedAt == ownerClaimedAt && node.compareTo(owner) < 0)) {
+                owner = node;
+                ownerClaimedAt = claimedAt;
+            }
+        }
+        return owner;
+    }
+
+    // Highest-random-weight hashing: every node computes the same owner from the same live set.
+    private static String rendezvous(String queue, Set<String> live) {
+        String owner = null;
+        long best = Long.MIN_VALUE;
+        for (String node : live) {
+            long weight = mix(hash(queue) * 31 + hash(node));
+            if (owner == null || weight > best) {
+                owner = node;
+                best = weight;
+            }
+        }
+        return owner;
+    }
+
+    private static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash = (hash ^ b) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static long mix(long value) {
+        value = (value ^ (value >>> 33)) * 0xff51afd7ed558ccdL;
+        value = (value ^ (value >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return value ^ (value >>> 33);
+    }
+
+    // Getters
+    public String getNodeId() { return nodeId; }
+    public boolean isStarted() { return transport != null; }
+    public Set<String> getLiveNodes() { return Collections.unmodifiableSet(lastSeen.keySet()); }
+    public int getForwardedCount() { return forwarded.size(); }
+    public long getSent() { return sent.sum(); }
+    public long getReceived() { return received.sum(); }
+    public long getBatches() { return batches.sum(); }
+    public long getFailovers() { return failovers.sum(); }
+
+    private record PendingCommand(String node, Consumer<Boolean> result) {
+    }
+}
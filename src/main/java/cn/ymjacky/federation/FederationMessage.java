@@ -0,0 +1,43 @@
+package cn.ymjacky.federation;
+
+import net.kyori.adventure.sound.Sound;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+// Everything nodes exchange; a network transport serializes these records, the loopback passes them as-is.
+public sealed interface FederationMessage {
+
+    String origin();
+
+    // Broadcast by every node; claims are the queues the node owns, keyed to when it took them.
+    record Heartbeat(String origin, long sentAt, Map<String, Long> claims, boolean leaving) implements FederationMessage {
+    }
+
+    // A solo player or a whole party, forwarded to the queue's owner. Rehomed joins follow an owner change.
+    record Join(String origin, String queue, String partyId, List<Member> members, long joinedAt, boolean rehomed)
+            implements FederationMessage {
+    }
+
+    record Leave(String origin, UUID playerId) implements FederationMessage {
+    }
+
+    record Confirm(String origin, UUID playerId) implements FederationMessage {
+    }
+
+    // Owner to origin: what RegionFanout would have shown the player; a non-zero callback expects a CommandResult.
+    record Deliver(String origin, UUID playerId, List<String> messages, String actionBar, Sound sound,
+                   String command, long callbackId) implements FederationMessage {
+    }
+
+    record CommandResult(String origin, long callbackId, boolean success) implements FederationMessage {
+    }
+
+    // Owner to origin: the player is no longer queued there, so the origin stops tracking the forwarded join.
+    record Released(String origin, UUID playerId) implements FederationMessage {
+    }
+
+    record Member(UUID playerId, String tier, boolean bypass) {
+    }
+}
@@ -0,0 +1,21 @@
+package cn.ymjacky.federation;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Carries batches of federation messages between lobby nodes.
+ * <p>
+ * Delivery may happen on any thread. A transport is not expected to retry: lost messages are
+ * recovered by heartbeats timing out and the origin nodes re-forwarding their players.
+ */
+public interface FederationTransport {
+
+    void start(String nodeId, Consumer<List<FederationMessage>> receiver);
+
+    void send(String node, List<FederationMessage> batch);
+
+    void broadcast(FederationMessage message);
+
+    void close();
+}
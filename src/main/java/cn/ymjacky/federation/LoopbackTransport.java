@@ -0,0 +1,72 @@
+package cn.ymjacky.federation;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+// In-process transport: every node connected to the same hub receives batches synchronously on the sender's thread.
+public class LoopbackTransport implements FederationTransport {
+
+    private static final Hub SHARED = new Hub();
+
+    private final Hub hub;
+    private volatile String nodeId;
+
+    public LoopbackTransport() {
+        this(SHARED);
+    }
+
+    public LoopbackTransport(Hub hub) {
+        this.hub = hub;
+    }
+
+    @Override
+    public void start(String nodeId, Consumer<List<FederationMessage>> receiver) {
+        if (hub.nodes.putIfAbsent(nodeId, receiver) != null) {
+            throw new IllegalStateException("节点已连接: " + nodeId);
+        }
+        this.nodeId = nodeId;
+    }
+
+    @Override
+    public void send(String node, List<FederationMessage> batch) {
+        Consumer<List<FederationMessage>> receiver = hub.nodes.get(node);
+        if (receiver == null) {
+            hub.dropped.add(batch.size());
+            return;
+        }
+        hub.delivered.add(batch.size());
+        receiver.accept(List.copyOf(batch));
+    }
+
+    @Override
+    public void broadcast(FederationMessage message) {
+        List<FederationMessage> batch = List.of(message);
+        for (Map.Entry<String, Consumer<List<FederationMessage>>> entry : hub.nodes.entrySet()) {
+            if (!entry.getKey().equals(nodeId)) {
+                hub.delivered.increment();
+                entry.getValue().accept(batch);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        String node = nodeId;
+        if (node != null) {
+            hub.nodes.remove(node);
+        }
+    }
+
+    public static final class Hub {
+        private final Map<String, Consumer<List<FederationMessage>>> nodes = new ConcurrentHashMap<>();
+        private final LongAdder delivered = new LongAdder();
+        private final LongAdder dropped = new LongAdder();
+
+        public int getNodeCount() { return nodes.size(); }
+        public long getDelivered() { return delivered.sum(); }
+        public long getDropped() { return dropped.sum(); }
+    }
+}
@@ -0,0 +1,6 @@
+package cn.ymjacky.journal;
+
+import java.util.UUID;
+
+public record JournalEntry(UUID playerId, String queue, String partyId, String tier, boolean bypass, long joinedAt) {
+}
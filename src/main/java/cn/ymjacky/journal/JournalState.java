@@ -0,0 +1,153 @@
+package cn.ymjacky.journal;
+
+import java.util.*;
+
+// In-memory image of the journal: what a snapshot writes out and what replay rebuilds. Not thread-safe; guarded by QueueJournal.
+public class JournalState {
+
+    private final Map<String, LinkedHashMap<UUID, JournalEntry>> waiting;
+    private final Map<String, Group> groups;
+    private final Map<UUID, Group> playerGroups;
+
+    public JournalState() {
+        this.waiting = new HashMap<>();
+        this.groups = new LinkedHashMap<>();
+        this.playerGroups = new HashMap<>();
+    }
+
+    void join(JournalEntry entry) {
+        removeFromGroup(entry.playerId());
+        waiting.computeIfAbsent(entry.queue(), _ -> new LinkedHashMap<>()).put(entry.playerId(), entry);
+    }
+
+    void remove(String queue, UUID playerId) {
+        LinkedHashMap<UUID, JournalEntry> entries = waiting.get(queue);
+        if (entries != null && entries.remove(playerId) != null && entries.isEmpty()) {
+            waiting.remove(queue);
+        }
+    }
+
+    void leave(UUID playerId) {
+        waiting.values().removeIf(entries -> entries.remove(playerId) != null && entries.isEmpty());
+        removeFromGroup(playerId);
+    }
+
+    // A formed group claims its members, so they leave every queue they were waiting in.
+    void groupFormed(String queue, String groupId, List<UUID> playerIds) {
+        Group group = new Group(groupId, queue);
+        LinkedHashMap<UUID, JournalEntry> entries = waiting.get(queue);
+        for (UUID playerId : playerIds) {
+            JournalEntry entry = entries == null ? null : entries.get(playerId);
+            leave(playerId);
+            if (entry != null) {
+                group.members.put(playerId, entry);
+                playerGroups.put(playerId, group);
+            }
+        }
+        if (!group.members.isEmpty()) {
+            groups.put(groupId, group);
+        }
+    }
+
+    void confirm(String groupId, UUID playerId) {
+        Group group = groups.get(groupId);
+        if (group != null && group.members.containsKey(playerId)) {
+            group.confirmed.add(playerId);
+        }
+    }
+
+    void groupEnded(String groupId) {
+        Group group = groups.remove(groupId);
+        if (group != null) {
+            for (UUID playerId : group.members.keySet()) {
+                playerGroups.remove(playerId, group);
+            }
+        }
+    }
+
+    // Deep enough that the copy can be written out while this state keeps changing.
+    JournalState copy() {
+        JournalState copy = new JournalState();
+        for (Map.Entry<String, LinkedHashMap<UUID, JournalEntry>> entry : waiting.entrySet()) {
+            copy.waiting.put(entry.getKey(), new LinkedHashMap<>(entry.getValue()));
+        }
+        for (Group group : groups.values()) {
+            Group duplicate = new Group(group.id, group.queue);
+            duplicate.members.putAll(group.members);
+            duplicate.confirmed.addAll(group.confirmed);
+            copy.groups.put(duplicate.id, duplicate);
+            for (UUID playerId : duplicate.members.keySet()) {
+                copy.playerGroups.put(playerId, duplicate);
+            }
+        }
+        return copy;
+    }
+
+    void clear() {
+        waiting.clear();
+        groups.clear();
+        playerGroups.clear();
+    }
+
+    private void removeFromGroup(UUID playerId) {
+        Group group = playerGroups.remove(playerId);
+        if (group == null) {
+            return;
+        }
+        group.members.remove(playerId);
+        group.confirmed.remove(playerId);
+        if (group.members.isEmpty()) {
+            groups.remove(group.id);
+        }
+    }
+
+    // Group members go back to their group's queue; their original join time keeps them ahead of later joiners.
+    public Map<UUID, List<JournalEntry>> restorable() {
+        Map<UUID, List<JournalEntry>> restorable = new LinkedHashMap<>();
+        for (Group group : groups.values()) {
+            for (JournalEntry entry : group.members.values()) {
+                restorable.computeIfAbsent(entry.playerId(), _ -> new ArrayList<>(1)).add(entry);
+            }
+        }
+        for (LinkedHashMap<UUID, JournalEntry> entries : waiting.values()) {
+            for (JournalEntry entry : entries.values()) {
+                restorable.computeIfAbsent(entry.playerId(), _ -> new ArrayList<>(1)).add(entry);
+            }
+        }
+        return restorable;
+    }
+
+    public int getWaitingCount() {
+        int count = 0;
+        for (LinkedHashMap<UUID, JournalEntry> entries : waiting.values()) {
+            count += entries.size();
+        }
+        return count;
+    }
+
+    public int getGroupCount() {
+        return groups.size();
+    }
+
+    Collection<LinkedHashMap<UUID, JournalEntry>> getWaiting() {
+        return waiting.values();
+    }
+
+    Collection<Group> getGroups() {
+        return groups.values();
+    }
+
+    static final class Group {
+        final String id;
+        final String queue;
+        final LinkedHashMap<UUID, JournalEntry> members;
+        final Set<UUID> confirmed;
+
+        Group(String id, String queue) {
+            this.id = id;
+            this.queue = queue;
+            this.members = new LinkedHashMap<>();
+            this.confirmed = new HashSet<>();
+        }
+    }
+}
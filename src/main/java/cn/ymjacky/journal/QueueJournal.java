@@ -0,0 +1,527 @@
+package cn.ymjacky.journal;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of queue mutations in two memory-mapped segments, compacted into a snapshot file.
+ * <p>
+ * Every record is framed as {@code [length][crc][body]}; the checksum also covers the segment generation,
+ * so a torn tail or a record left over from before the last compaction ends replay instead of corrupting it.
+ * The length is written last, which makes each append atomic with respect to a process crash.
+ * <p>
+ * Appends never touch the disk beyond the mapped segment. When the active segment fills up or a compaction
+ * starts, the journal rolls over to the other segment and keeps a copy of the state as of that point; the copy
+ * is written and forced as the next snapshot by {@link #compact()} outside the journal lock. Snapshot
+ * {@code n} holds everything logged before segment {@code n}, so the previous segment is only reused once
+ * that snapshot is on disk.
+ */
+public class QueueJournal implements AutoCloseable {
+
+    private static final int SEGMENT_MAGIC = 0x53505151;
+    private static final int SNAPSHOT_MAGIC = 0x53505153;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int FRAME_SIZE = 8;
+    private static final String[] SEGMENT_FILES = {"queue.journal", "queue-1.journal"};
+
+    private static final byte JOIN = 1;
+    private static final byte REMOVE = 2;
+    private static final byte LEAVE = 3;
+    private static final byte GROUP_FORMED = 4;
+    private static final byte CONFIRM = 5;
+    private static final byte GROUP_ENDED = 6;
+
+    private final Path snapshotFile;
+    private final FileChannel[] channels;
+    private final MappedByteBuffer[] segments;
+    private final JournalState state;
+    private final CRC32 crc;
+    // Held for the whole snapshot write so only one compaction runs at a time; never taken by appends.
+    private final Object snapshotLock;
+    private MappedByteBuffer segment;
+    private int active;
+    private ByteBuffer scratch;
+    private long generation;
+    private long snapshotGeneration;
+    private Snapshot pendingSnapshot;
+    private boolean overflowed;
+    private Runnable rolloverListener;
+    private int position;
+    private long appends;
+    private long droppedRecords;
+    private long compactions;
+    private int recoveredRecords;
+    private long recoveryNanos;
+    private boolean closed;
+
+    private record Snapshot(long generation, JournalState state) {
+    }
+
+    private QueueJournal(Path directory, int segmentBytes) throws IOException {
+        Files.createDirectories(directory);
+        this.snapshotFile = directory.resolve("queue.snapshot");
+        this.channels = new FileChannel[SEGMENT_FILES.length];
+        this.segments = new MappedByteBuffer[SEGMENT_FILES.length];
+        try {
+            for (int i = 0; i < SEGMENT_FILES.length; i++) {
+                channels[i] = FileChannel.open(directory.resolve(SEGMENT_FILES[i]),
+                        StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                long size = Math.max(channels[i].size(), Math.max(HEADER_SIZE + 1024, segmentBytes));
+                segments[i] = channels[i].map(FileChannel.MapMode.READ_WRITE, 0, size);
+            }
+        } catch (IOException e) {
+            closeChannels();
+            throw e;
+        }
+        this.state = new JournalState();
+        this.crc = new CRC32();
+        this.snapshotLock = new Object();
+        this.scratch = ByteBuffer.allocate(4096);
+    }
+
+    public static QueueJournal open(Path directory, int segmentBytes) throws IOException {
+        QueueJournal journal = new QueueJournal(directory, segmentBytes);
+        try {
+            journal.recover();
+        } catch (IOException | RuntimeException e) {
+            journal.closeChannels();
+            throw e;
+        }
+        return journal;
+    }
+
+    // Snapshot first, then every segment written on top of it, oldest first.
+    private void recover() throws IOException {
+        long start = System.nanoTime();
+        if (Files.exists(snapshotFile)) {
+            ByteBuffer snapshot = ByteBuffer.wrap(Files.readAllBytes(snapshotFile));
+            if (snapshot.remaining() < HEADER_SIZE + 4
+                    || snapshot.getInt(0) != SNAPSHOT_MAGIC || snapshot.getInt(4) != VERSION) {
+                throw new IOException("无法识别的队列快照: " + snapshotFile);
+            }
+            snapshotGeneration = snapshot.getLong(8);
+            int expected = snapshot.getInt(HEADER_SIZE);
+            replay(snapshot, HEADER_SIZE + 4, snapshotGeneration);
+            if (recoveredRecords != expected) {
+                throw new IOException("队列快照已损坏: " + snapshotFile);
+            }
+        }
+        List<Integer> live = new ArrayList<>(segments.length);
+        for (int i = 0; i < segments.length; i++) {
+            MappedByteBuffer buffer = segments[i];
+            if (buffer.getInt(0) == SEGMENT_MAGIC && buffer.getInt(4) == VERSION
+                    && buffer.getLong(8) >= snapshotGeneration) {
+                live.add(i);
+            }
+        }
+        live.sort(Comparator.comparingLong(i -> segments[i].getLong(8)));
+        generation = snapshotGeneration;
+        segment = segments[0];
+        if (live.isEmpty()) {
+            resetSegment();
+        }
+        for (int index : live) {
+            long segmentGeneration = segments[index].getLong(8);
+            if (segmentGeneration > snapshotGeneration) {
+                // No snapshot covers what came before this segment yet; the next compaction writes it.
+                pendingSnapshot = new Snapshot(segmentGeneration, state.copy());
+            }
+            active = index;
+            segment = segments[index];
+            generation = segmentGeneration;
+            position = replay(segment, HEADER_SIZE, generation);
+        }
+        if (position + 4 <= segment.capacity()) {
+            segment.putInt(position, 0);
+        }
+        recoveryNanos = System.nanoTime() - start;
+    }
+
+    // Applies records until the first empty, truncated or mismatching frame and returns where it stopped.
+    private int replay(ByteBuffer buffer, int offset, long recordGeneration) {
+        int pos = offset;
+        while (pos + FRAME_SIZE <= buffer.limit()) {
+            int length = buffer.getInt(pos);
+            if (length <= 0 || length > buffer.limit() - pos - FRAME_SIZE) {
+                break;
+            }
+            ByteBuffer body = buffer.slice(pos + FRAME_SIZE, length);
+            if (buffer.getInt(pos + 4) != checksum(crc, recordGeneration, body.duplicate())) {
+                break;
+            }
+            apply(body);
+            recoveredRecords++;
+            pos += FRAME_SIZE + length;
+        }
+        return pos;
+    }
+
+    public synchronized void join(String queue, UUID playerId, String partyId, String tier, boolean bypass, long joinedAt) {
+        JournalEntry entry = new JournalEntry(playerId, queue, partyId, tier, bypass, joinedAt);
+        ByteBuffer body = begin(JOIN);
+        encodeEntry(body, entry);
+        append(body);
+        state.join(entry);
+    }
+
+    public synchronized void remove(String queue, UUID playerId) {
+        ByteBuffer body = begin(REMOVE);
+        putString(body, queue);
+        putUuid(body, playerId);
+        append(body);
+        state.remove(queue, playerId);
+    }
+
+    public synchronized void leave(UUID playerId) {
+        ByteBuffer body = begin(LEAVE);
+        putUuid(body, playerId);
+        append(body);
+        state.leave(playerId);
+    }
+
+    public synchronized void groupFormed(String queue, String groupId, List<UUID> playerIds) {
+        ByteBuffer body = begin(GROUP_FORMED, 16 * playerIds.size());
+        encodeGroup(body, queue, groupId, playerIds);
+        append(body);
+        state.groupFormed(queue, groupId, playerIds);
+    }
+
+    public synchronized void confirm(String groupId, UUID playerId) {
+        ByteBuffer body = begin(CONFIRM);
+        putString(body, groupId);
+        putUuid(body, playerId);
+        append(body);
+        state.confirm(groupId, playerId);
+    }
+
+    public synchronized void groupEnded(String groupId) {
+        ByteBuffer body = begin(GROUP_ENDED);
+        putString(body, groupId);
+        append(body);
+        state.groupEnded(groupId);
+    }
+
+    // Called with the journal locked whenever a full segment forces a rollover, so the owner can compact soon.
+    public synchronized void setRolloverListener(Runnable rolloverListener) {
+        this.rolloverListener = rolloverListener;
+    }
+
+    /**
+     * Writes the snapshot owed by the last rollover, or rolls over now and writes that one. Only the rollover
+     * itself holds the journal lock; the file is written, forced and renamed into place without it, so appends
+     * carry on meanwhile. A failed write is kept and retried by the next call.
+     */
+    public void compact() {
+        synchronized (snapshotLock) {
+            Snapshot snapshot = nextSnapshot();
+            writeSnapshot(snapshot);
+            if (land(snapshot)) {
+                // Records were dropped while the spare segment was still needed; log them through a fresh snapshot.
+                Snapshot catchUp = nextSnapshot();
+                writeSnapshot(catchUp);
+                land(catchUp);
+            }
+        }
+    }
+
+    private synchronized Snapshot nextSnapshot() {
+        ensureOpen();
+        if (pendingSnapshot == null) {
+            rollover();
+        }
+        return pendingSnapshot;
+    }
+
+    // Returns whether appends overflowed while the snapshot was being written.
+    private synchronized boolean land(Snapshot snapshot) {
+        if (pendingSnapshot == snapshot) {
+            pendingSnapshot = null;
+            snapshotGeneration = snapshot.generation();
+            compactions++;
+        }
+        return overflowed;
+    }
+
+    // Switches to the other segment under the next generation. Only valid once the last snapshot has landed,
+    // because until then the other segment still holds records no snapshot covers.
+    private void rollover() {
+        pendingSnapshot = new Snapshot(generation + 1, state.copy());
+        active = (active + 1) % segments.length;
+        segment = segments[active];
+        generation++;
+        resetSegment();
+        overflowed = false;
+    }
+
+    private void writeSnapshot(Snapshot snapshot) {
+        JournalState image = snapshot.state();
+        long next = snapshot.generation();
+        CRC32 snapshotCrc = new CRC32();
+        ByteBuffer body = ByteBuffer.allocate(4096);
+        Path temp = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+        try {
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp))) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + 4);
+                header.putInt(SNAPSHOT_MAGIC).putInt(VERSION).putLong(next).putInt(countSnapshotRecords(image));
+                out.write(header.array());
+                for (LinkedHashMap<UUID, JournalEntry> entries : image.getWaiting()) {
+                    for (JournalEntry entry : entries.values()) {
+                        body = begin(body, JOIN, 0);
+                        encodeEntry(body, entry);
+                        writeRecord(out, snapshotCrc, body, next);
+                    }
+                }
+                for (JournalState.Group group : image.getGroups()) {
+                    for (JournalEntry entry : group.members.values()) {
+                        body = begin(body, JOIN, 0);
+                        encodeEntry(body, entry);
+                        writeRecord(out, snapshotCrc, body, next);
+                    }
+                    body = begin(body, GROUP_FORMED, 16 * group.members.size());
+                    encodeGroup(body, group.queue, group.id, List.copyOf(group.members.keySet()));
+                    writeRecord(out, snapshotCrc, body, next);
+                    for (UUID playerId : group.confirmed) {
+                        body = begin(body, CONFIRM, 0);
+                        putString(body, group.id);
+                        putUuid(body, playerId);
+                        writeRecord(out, snapshotCrc, body, next);
+                    }
+                }
+            }
+            try (FileChannel snapshotChannel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                snapshotChannel.force(true);
+            }
+            Files.move(temp, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("写入队列快照失败", e);
+        }
+    }
+
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (MappedByteBuffer buffer : segments) {
+            buffer.force();
+        }
+        closeChannels();
+    }
+
+    private void closeChannels() {
+        IOException failure = null;
+        for (FileChannel channel : channels) {
+            if (channel == null) {
+                continue;
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw new UncheckedIOException(failure);
+        }
+    }
+
+    private static int countSnapshotRecords(JournalState image) {
+        int count = image.getWaitingCount();
+        for (JournalState.Group group : image.getGroups()) {
+            count += group.members.size() + 1 + group.confirmed.size();
+        }
+        return count;
+    }
+
+    private void resetSegment() {
+        segment.putInt(0, SEGMENT_MAGIC);
+        segment.putInt(4, VERSION);
+        segment.putLong(8, generation);
+        segment.putInt(HEADER_SIZE, 0);
+        position = HEADER_SIZE;
+    }
+
+    private ByteBuffer begin(byte type) {
+        return begin(type, 0);
+    }
+
+    private ByteBuffer begin(byte type, int extra) {
+        scratch = begin(scratch, type, extra);
+        return scratch;
+    }
+
+    private static ByteBuffer begin(ByteBuffer buffer, byte type, int extra) {
+        if (buffer.capacity() < 1024 + extra) {
+            buffer = ByteBuffer.allocate(Integer.highestOneBit(1024 + extra) << 1);
+        }
+        buffer.clear();
+        buffer.put(type);
+        return buffer;
+    }
+
+    // Rolls over to the other segment when this one is full. If that segment is still waiting for its snapshot,
+    // the record is left out of the log (the in-memory state still has it) until compact() catches up; a crash in
+    // that window loses only the records since the segment filled.
+    private void append(ByteBuffer body) {
+        ensureOpen();
+        int length = body.position();
+        if (FRAME_SIZE + length > segment.capacity() - HEADER_SIZE) {
+            throw new IllegalStateException("队列日志记录超过日志段大小: " + length);
+        }
+        if (!overflowed && position + FRAME_SIZE + length > segment.capacity()) {
+            if (pendingSnapshot == null) {
+                rollover();
+                if (rolloverListener != null) {
+                    rolloverListener.run();
+                }
+            } else {
+                overflowed = true;
+            }
+        }
+        if (overflowed) {
+            droppedRecords++;
+            return;
+        }
+        int checksum = checksum(crc, generation, body.flip());
+        segment.put(position + FRAME_SIZE, body, 0, length);
+        int next = position + FRAME_SIZE + length;
+        if (next + 4 <= segment.capacity()) {
+            segment.putInt(next, 0);
+        }
+        segment.putInt(position + 4, checksum);
+        segment.putInt(position, length);
+        position = next;
+        appends++;
+    }
+
+    private static void writeRecord(OutputStream out, CRC32 crc, ByteBuffer body, long recordGeneration)
+            throws IOException {
+        int length = body.position();
+        int checksum = checksum(crc, recordGeneration, body.flip());
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_SIZE).putInt(length).putInt(checksum);
+        out.write(frame.array());
+        out.write(body.array(), 0, length);
+    }
+
+    private static int checksum(CRC32 crc, long recordGeneration, ByteBuffer body) {
+        crc.reset();
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            crc.update((int) (recordGeneration >>> shift));
+        }
+        crc.update(body);
+        return (int) crc.getValue();
+    }
+
+    private void apply(ByteBuffer body) {
+        byte type = body.get();
+        switch (type) {
+            case JOIN -> state.join(decodeEntry(body));
+            case REMOVE -> state.remove(getString(body), getUuid(body));
+            case LEAVE -> state.leave(getUuid(body));
+            case GROUP_FORMED -> {
+                String queue = getString(body);
+                String groupId = getString(body);
+                int size = body.getInt();
+                UUID[] playerIds = new UUID[size];
+                for (int i = 0; i < size; i++) {
+                    playerIds[i] = getUuid(body);
+                }
+                state.groupFormed(queue, groupId, List.of(playerIds));
+            }
+            case CONFIRM -> state.confirm(getString(body), getUuid(body));
+            case GROUP_ENDED -> state.groupEnded(getString(body));
+            default -> throw new IllegalStateException("未知的队列日志记录类型: " + type);
+        }
+    }
+
+    private static void encodeEntry(ByteBuffer body, JournalEntry entry) {
+        putString(body, entry.queue());
+        putUuid(body, entry.playerId());
+        putString(body, entry.partyId());
+        putString(body, entry.tier());
+        body.put((byte) (entry.bypass() ? 1 : 0));
+        body.putLong(entry.joinedAt());
+    }
+
+    private static JournalEntry decodeEntry(ByteBuffer body) {
+        String queue = getString(body);
+        UUID playerId = getUuid(body);
+        String partyId = getString(body);
+        String tier = getString(body);
+        boolean bypass = body.get() != 0;
+        return new JournalEntry(playerId, queue, partyId, tier, bypass, body.getLong());
+    }
+
+    private static void encodeGroup(ByteBuffer body, String queue, String groupId, List<UUID> playerIds) {
+        putString(body, queue);
+        putString(body, groupId);
+        body.putInt(playerIds.size());
+        for (UUID playerId : playerIds) {
+            putUuid(body, playerId);
+        }
+    }
+
+    private static void putUuid(ByteBuffer body, UUID uuid) {
+        body.putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits());
+    }
+
+    private static UUID getUuid(ByteBuffer body) {
+        return new UUID(body.getLong(), body.getLong());
+    }
+
+    // Names, group and party ids are short; anything over 255 bytes is not something the queue produces.
+    private static void putString(ByteBuffer body, String value) {
+        if (value == null) {
+            body.put((byte) -1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 254) {
+            throw new IllegalArgumentException("队列日志字段过长: " + value);
+        }
+        body.put((byte) bytes.length).put(bytes);
+    }
+
+    private static String getString(ByteBuffer body) {
+        int length = body.get() & 0xFF;
+        if (length == 0xFF) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        body.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("队列日志已关闭");
+        }
+    }
+
+    public synchronized JournalState getState() { return state; }
+    public synchronized long getGeneration() { return generation; }
+    public synchronized long getAppends() { return appends; }
+    public synchronized long getCompactions() { return compactions; }
+    public synchronized long getDroppedRecords() { return droppedRecords; }
+    public synchronized int getSegmentUsed() { return position; }
+    public synchronized int getSegmentSize() { return segment.capacity(); }
+    public synchronized int getRecoveredRecords() { return recoveredRecords; }
+    public synchronized long getRecoveryNanos() { return recoveryNanos; }
+}
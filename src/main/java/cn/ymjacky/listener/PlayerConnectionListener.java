@@ -2,6 +2,7 @@ package cn.ymjacky.listener;
 
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerJoinEvent;
 import org.bukkit.event.player.PlayerQuitEvent;
 import cn.ymjacky.queue.QueueManager;
 
@@ -13,6 +14,11 @@ public class PlayerConnectionListener implements Listener {
         this.queueManager = queueManager;
     }
 
+    @EventHandler
+    public void onPlayerJoin(PlayerJoinEvent event) {
+        queueManager.restorePlayer(event.getPlayer());
+    }
+
     @EventHandler
     public void onPlayerQuit(PlayerQuitEvent event) {
         queueManager.leaveQueue(event.getPlayer());
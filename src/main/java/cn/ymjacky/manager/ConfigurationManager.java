@@ -1,23 +1,26 @@
 package cn.ymjacky.manager;
 
-import cn.ymjacky.SPToolsPlugin;
+import cn.ymjacky.config.ArenaTarget;
 import cn.ymjacky.config.QueueConfig;
 import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.plugin.Plugin;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 public class ConfigurationManager {
 
-    private final SPToolsPlugin plugin;
+    private final Plugin plugin;
     private final Map<String, QueueConfig> queueConfigs;
     private final Map<String, String> messages;
 
-    public ConfigurationManager(SPToolsPlugin plugin) {
+    public ConfigurationManager(Plugin plugin) {
         this.plugin = plugin;
         this.queueConfigs = new HashMap<>();
         this.messages = new HashMap<>();
@@ -50,15 +53,24 @@ public class ConfigurationManager {
             for (String queueName : queuesSection.getKeys(false)) {
                 String path = "queues." + queueName;
 
+                int maxPlayers = config.getInt(path + ".max-players", 12);
                 QueueConfig queueConfig = new QueueConfig(
                         queueName,
-                        config.getInt(path + ".max-players", 12),
+                        maxPlayers,
                         config.getInt(path + ".min-players", 2),
+                        config.getInt(path + ".capacity", maxPlayers),
+                        config.getInt(path + ".max-instances", 1),
                         config.getString(path + ".game-command", "bw join " + queueName),
                         config.getInt(path + ".confirmation-time", 30),
                         config.getInt(path + ".countdown-time", 10),
                         config.getInt(path + ".buffer-time", 20),
-                        config.getBoolean(path + ".require-confirmation", true)
+                        config.getBoolean(path + ".require-confirmation", true),
+                        loadAutoStart(config, path),
+                        config.getInt(path + ".relax-after", 60),
+                        config.getInt(path + ".relax-interval", 15),
+                        loadLaneWeights(config, path),
+                        loadArenas(config, path, maxPlayers),
+                        config.getInt(path + ".arena-hold-seconds", 600)
                 );
 
                 queueConfigs.put(queueName.toLowerCase(), queueConfig);
@@ -67,9 +79,72 @@ public class ConfigurationManager {
         }
     }
 
+    // Older configs spell the key auto_start; it is still honoured so queues that turned auto-start off stay off.
+    private boolean loadAutoStart(FileConfiguration config, String path) {
+        if (config.contains(path + ".auto-start")) {
+            return config.getBoolean(path + ".auto-start");
+        }
+        if (config.contains(path + ".auto_start")) {
+            plugin.getLogger().warning("队列 " + path + " 使用了旧的配置项 auto_start，请改为 auto-start");
+            return config.getBoolean(path + ".auto_start");
+        }
+        return false;
+    }
+
+    private Map<String, Integer> loadLaneWeights(FileConfiguration config, String path) {
+        Map<String, Integer> weights = new LinkedHashMap<>();
+        if (!config.getBoolean("priority.enabled", false)) {
+            weights.put("default", 1);
+            return weights;
+        }
+        ConfigurationSection section = config.getConfigurationSection(path + ".lane-weights");
+        if (section == null) {
+            section = config.getConfigurationSection("priority.lane-weights");
+        }
+        if (section != null) {
+            for (String tier : section.getKeys(false)) {
+                weights.put(tier.toLowerCase(), Math.max(1, section.getInt(tier, 1)));
+            }
+        }
+        if (weights.isEmpty()) {
+            weights.put("svip", 4);
+            weights.put("vip", 2);
+            weights.put("default", 1);
+        }
+        return weights;
+    }
+
+    // An arena smaller than max-players could never seat a full group, so it is left out instead of being retried.
+    private List<ArenaTarget> loadArenas(FileConfiguration config, String path, int maxPlayers) {
+        List<ArenaTarget> arenas = new ArrayList<>();
+        int index = 1;
+        for (Map<?, ?> entry : config.getMapList(path + ".arenas")) {
+            Object command = entry.get("command");
+            if (command == null) {
+                plugin.getLogger().warning("队列 " + path + " 的竞技场配置缺少 command，已跳过");
+                continue;
+            }
+            Object name = entry.get("name");
+            Object capacity = entry.get("capacity");
+            ArenaTarget arena = new ArenaTarget(
+                    name == null ? "arena-" + index : name.toString(),
+                    command.toString(),
+                    capacity instanceof Number number ? number.intValue() : 0);
+            index++;
+            if (arena.getCapacity() > 0 && arena.getCapacity() < maxPlayers) {
+                plugin.getLogger().warning("队列 " + path + " 的竞技场 " + arena.getName() + " 容量 " + arena.getCapacity()
+                        + " 小于 max-players " + maxPlayers + "，已跳过");
+                continue;
+            }
+            arenas.add(arena);
+        }
+        return arenas;
+    }
+
     private void loadMessages() {
         FileConfiguration config = plugin.getConfig();
         ConfigurationSection messagesSection = config.getConfigurationSection("messages");
+        messages.putAll(getDefaultMessages());
 
         if (messagesSection != null) {
             for (String key : messagesSection.getKeys(true)) {
@@ -88,6 +163,9 @@ public class ConfigurationManager {
         defaultQueue.put("countdown-time", 10);
         defaultQueue.put("buffer-time", 20);
         defaultQueue.put("require-confirmation", true);
+        defaultQueue.put("auto-start", true);
+        defaultQueue.put("relax-after", 60);
+        defaultQueue.put("relax-interval", 15);
         defaultQueue.put("whitelist-modes", Arrays.asList("survival", "creative"));
         defaultQueue.put("blacklist-modes", List.of("spectator"));
 
@@ -103,7 +181,7 @@ public class ConfigurationManager {
 
     private static @NotNull Map<String, String> getDefaultMessages() {
         Map<String, String> defaultMessages = new HashMap<>();
-        defaultMessages.put("queue.join.success", "&a您已加入 &e{queue}&a 队列! 当前排队: &6{current}&a/&6{max}");
+        defaultMessages.put("queue.join.success", "&a您已加入 &e{queue}&a 队列! 当前排队: &6{current}&a/&6{max}&a, 预计等待: &6{wait}");
         defaultMessages.put("queue.join.already-in", "&c您已经在队列中!");
         defaultMessages.put("queue.join.full", "&c队列已满!");
         defaultMessages.put("queue.join.not-found", "&c队列 &e{queue}&c 不存在!");
@@ -117,6 +195,21 @@ public class ConfigurationManager {
         defaultMessages.put("queue.group.cancelled", "&c队列已取消");
         defaultMessages.put("queue.group.timeout", "&c确认超时，队列已取消");
         defaultMessages.put("queue.group.teleporting", "&a正在传送至游戏...");
+        defaultMessages.put("queue.group.no-arena", "&c暂时没有可用的竞技场，队列已取消，请稍后重新加入");
+        defaultMessages.put("queue.hud.text", "&e{queue} &7| 排队位置 &6{position}&7/&6{size} &7| 预计等待 &a{wait}");
+        defaultMessages.put("queue.party.success", "&a您的 &6{size}&a 人小队已加入 &e{queue}&a 队列! 当前排队: &6{current}&a/&6{max}&a, 预计等待: &6{wait}");
+        defaultMessages.put("queue.party.too-large", "&c小队人数 &6{size}&c 超过队列上限 &6{max}");
+        defaultMessages.put("queue.party.member-busy", "&c小队成员 &e{player}&c 已在其他队列中");
+        defaultMessages.put("queue.party.invited", "&e{leader}&a 邀请你组队加入 &e{queue}&a 队列，输入 &6/queue party accept&a 接受或 &6/queue party deny&a 拒绝 (&7{seconds}秒内有效&a)");
+        defaultMessages.put("queue.party.invite-sent", "&a已向 &6{count}&a 名玩家发送组队邀请，全部接受后将一同加入 &e{queue}&a 队列");
+        defaultMessages.put("queue.party.accepted", "&e{player}&a 接受了组队邀请 (&6{accepted}&a/&6{total}&a)");
+        defaultMessages.put("queue.party.denied", "&e{player}&c 拒绝了组队邀请，小队已解散");
+        defaultMessages.put("queue.party.cancelled", "&c有小队成员已离线，组队邀请已取消");
+        defaultMessages.put("queue.party.expired", "&c组队邀请已过期");
+        defaultMessages.put("queue.party.no-invite", "&c您没有待处理的组队邀请");
+        defaultMessages.put("queue.party.member-invited", "&c玩家 &e{player}&c 正在处理其他组队邀请，请稍后再试");
+        defaultMessages.put("queue.federation.syncing", "&e队列正在与其他节点同步，请稍后再试");
+        defaultMessages.put("queue.restore.success", "&a已恢复您在 &e{queue}&a 中的排队位置: &6{position}&a，预计等待: &6{wait}");
         return defaultMessages;
     }
 
@@ -0,0 +1,164 @@
+package cn.ymjacky.metrics;
+
+import cn.ymjacky.journal.QueueJournal;
+import cn.ymjacky.queue.QueueManager;
+import cn.ymjacky.queue.QueueShard;
+import io.papermc.paper.threadedregions.scheduler.ScheduledTask;
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.Plugin;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+import java.util.logging.Level;
+
+// Periodically writes the queue metrics in Prometheus text format, e.g. for node_exporter's textfile collector.
+public class PrometheusExporter {
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99};
+
+    private final Plugin plugin;
+    private final QueueManager queueManager;
+    private final Path file;
+    private ScheduledTask task;
+
+    public PrometheusExporter(Plugin plugin, QueueManager queueManager, Path file) {
+        this.plugin = plugin;
+        this.queueManager = queueManager;
+        this.file = file;
+    }
+
+    public void start(long intervalSeconds) {
+        long interval = Math.max(1, intervalSeconds);
+        task = Bukkit.getAsyncScheduler().runAtFixedRate(plugin, _ -> export(), interval, interval, TimeUnit.SECONDS);
+    }
+
+    public void stop() {
+        if (task != null) {
+            task.cancel();
+        }
+        export();
+    }
+
+    public void export() {
+        try {
+            Files.createDirectories(file.toAbsolutePath().getParent());
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.writeString(temp, render(), StandardCharsets.UTF_8);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.WARNING, "写入队列指标文件失败: " + file, e);
+        }
+    }
+
+    public String render() {
+        long now = System.currentTimeMillis();
+        List<Family> families = new ArrayList<>();
+        for (String name : new TreeSet<>(queueManager.getQueueNames())) {
+            List<QueueShard> instances = queueManager.getInstances(name);
+            if (!instances.isEmpty()) {
+                families.add(new Family(name, instances, instances.getFirst().getQueue().getMetrics()));
+            }
+        }
+
+        StringBuilder out = new StringBuilder(4096);
+        gauge(out, families, "sptools_queue_depth", "Players waiting in the queue across all instances.",
+                family -> family.instances().stream().mapToInt(shard -> shard.getQueue().getPlayerCount()).sum());
+        gauge(out, families, "sptools_queue_instances", "Open instances of the queue.",
+                family -> family.instances().size());
+        gauge(out, families, "sptools_queue_groups_active", "Groups between forming and dispatch.",
+                family -> family.instances().stream().mapToInt(shard -> shard.getGroups().size()).sum());
+        gauge(out, families, "sptools_queue_groups_per_minute", "Groups formed during the last minute.",
+                family -> family.metrics().getGroupsLastMinute(now));
+        counter(out, families, "sptools_queue_joined_total", "Players that joined the queue.",
+                family -> family.metrics().getJoined());
+        counter(out, families, "sptools_queue_groups_formed_total", "Groups formed.",
+                family -> family.metrics().getFormed());
+
+        header(out, "sptools_queue_groups_ended_total", "Groups that ended, by outcome.", "counter");
+        for (Family family : families) {
+            QueueMetrics metrics = family.metrics();
+            sample(out, "sptools_queue_groups_ended_total", family.name(), "outcome", "started", metrics.getStarted());
+            sample(out, "sptools_queue_groups_ended_total", family.name(), "outcome", "timeout", metrics.getTimedOut());
+            sample(out, "sptools_queue_groups_ended_total", family.name(), "outcome", "cancelled", metrics.getCancelled());
+        }
+
+        summary(out, families, "sptools_queue_join_to_group_seconds", "Time from joining to being placed in a group.",
+                QueueMetrics::getJoinToGroup);
+        summary(out, families, "sptools_queue_confirmation_seconds", "Time from group formation to each confirmation.",
+                QueueMetrics::getConfirmation);
+
+        QueueJournal journal = queueManager.getJournal();
+        if (journal != null) {
+            header(out, "sptools_journal_dropped_records_total",
+                    "Journal records held only in memory because both segments were full.", "counter");
+            out.append("sptools_journal_dropped_records_total ").append(journal.getDroppedRecords()).append('\n');
+        }
+        return out.toString();
+    }
+
+    private static void gauge(StringBuilder out, List<Family> families, String name, String help,
+                              ToDoubleFunction<Family> value) {
+        header(out, name, help, "gauge");
+        for (Family family : families) {
+            sample(out, name, family.name(), null, null, value.applyAsDouble(family));
+        }
+    }
+
+    private static void counter(StringBuilder out, List<Family> families, String name, String help,
+                                ToDoubleFunction<Family> value) {
+        header(out, name, help, "counter");
+        for (Family family : families) {
+            sample(out, name, family.name(), null, null, value.applyAsDouble(family));
+        }
+    }
+
+    private static void summary(StringBuilder out, List<Family> families, String name, String help,
+                                Function<QueueMetrics, LatencyHistogram> histogram) {
+        header(out, name, help, "summary");
+        for (Family family : families) {
+            LatencyHistogram values = histogram.apply(family.metrics());
+            for (double quantile : QUANTILES) {
+                sample(out, name, family.name(), "quantile", Double.toString(quantile),
+                        values.percentile(quantile * 100) / 1000.0);
+            }
+            sample(out, name + "_sum", family.name(), null, null, values.getSum() / 1000.0);
+            sample(out, name + "_count", family.name(), null, null, values.getCount());
+        }
+    }
+
+    private static void header(StringBuilder out, String name, String help, String type) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String queue, String label, String labelValue,
+                               double value) {
+        out.append(name).append("{queue=\"").append(escape(queue)).append('"');
+        if (label != null) {
+            out.append(',').append(label).append("=\"").append(escape(labelValue)).append('"');
+        }
+        out.append("} ");
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            out.append((long) value);
+        } else {
+            out.append(value);
+        }
+        out.append('\n');
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private record Family(String name, List<QueueShard> instances, QueueMetrics metrics) {
+    }
+}
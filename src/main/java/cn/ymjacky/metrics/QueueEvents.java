@@ -0,0 +1,179 @@
+package cn.ymjacky.metrics;
+
+import cn.ymjacky.queue.GameQueue;
+import cn.ymjacky.queue.QueueGroup;
+import cn.ymjacky.queue.QueuePlayer;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+import java.util.List;
+import java.util.UUID;
+
+// Flight Recorder events for the queue lifecycle. All of them are disabled by default; when disabled the JIT
+// drops the event object entirely. Enable with e.g. "jcmd <pid> JFR.start +cn.ymjacky.QueueCountdownTick#enabled=true".
+public final class QueueEvents {
+
+    private QueueEvents() {
+    }
+
+    public static void join(GameQueue queue, List<QueuePlayer> players) {
+        Join event = new Join();
+        if (event.isEnabled()) {
+            QueuePlayer leader = players.getFirst();
+            event.queue = queue.getInstanceKey();
+            event.players = players.size();
+            event.playerId = leader.getPlayerId().toString();
+            event.partyId = leader.getPartyId();
+            event.commit();
+        }
+    }
+
+    public static void leave(GameQueue queue, UUID playerId, QueueGroup group) {
+        Leave event = new Leave();
+        if (event.isEnabled()) {
+            event.queue = queue.getInstanceKey();
+            event.playerId = playerId.toString();
+            event.groupId = group == null ? null : group.getId();
+            event.commit();
+        }
+    }
+
+    public static void confirmation(QueueGroup group, UUID playerId, long latencyMillis) {
+        Confirmation event = new Confirmation();
+        if (event.isEnabled()) {
+            event.queue = group.getQueue().getInstanceKey();
+            event.groupId = group.getId();
+            event.playerId = playerId.toString();
+            event.latency = latencyMillis;
+            event.confirmed = group.getConfirmedCount();
+            event.size = group.getSize();
+            event.commit();
+        }
+    }
+
+    @Name("cn.ymjacky.QueueJoin")
+    @Label("Queue Join")
+    @Category({"SPTools", "Queue"})
+    @Enabled(false)
+    @StackTrace(false)
+    public static final class Join extends Event {
+        @Label("Queue")
+        public String queue;
+        @Label("Player")
+        @Description("The joining player, or the party leader")
+        public String playerId;
+        @Label("Party")
+        public String partyId;
+        @Label("Players")
+        public int players;
+    }
+
+    @Name("cn.ymjacky.QueueLeave")
+    @Label("Queue Leave")
+    @Category({"SPTools", "Queue"})
+    @Enabled(false)
+    @StackTrace(false)
+    public static final class Leave extends Event {
+        @Label("Queue")
+        public String queue;
+        @Label("Group")
+        @Description("Set when the player left a group that had already formed")
+        public String groupId;
+        @Label("Player")
+        public String playerId;
+    }
+
+    @Name("cn.ymjacky.QueueGroupFormed")
+    @Label("Group Formed")
+    @Description("Polling the queue and building the group")
+    @Category({"SPTools", "Queue"})
+    @Enabled(false)
+    @StackTrace(false)
+    public static final class GroupFormed extends Event {
+        @Label("Queue")
+        public String queue;
+        @Label("Group")
+        public String groupId;
+        @Label("Size")
+        public int size;
+        @Label("Remaining")
+        @Description("Players still waiting in the queue instance")
+        public int remaining;
+    }
+
+    @Name("cn.ymjacky.QueueConfirmation")
+    @Label("Group Confirmation")
+    @Category({"SPTools", "Queue"})
+    @Enabled(false)
+    @StackTrace(false)
+    public static final class Confirmation extends Event {
+        @Label("Queue")
+        public String queue;
+        @Label("Group")
+        public String groupId;
+        @Label("Player")
+        public String playerId;
+        @Label("Latency")
+        @Description("Time from group formation to this confirmation")
+        @Timespan(Timespan.MILLISECONDS)
+        public long latency;
+        @Label("Confirmed")
+        public int confirmed;
+        @Label("Size")
+        public int size;
+    }
+
+    @Name("cn.ymjacky.QueueCountdownTick")
+    @Label("Countdown Tick")
+    @Category({"SPTools", "Queue"})
+    @Enabled(false)
+    @StackTrace(false)
+    public static final class CountdownTick extends Event {
+        @Label("Queue")
+        public String queue;
+        @Label("Group")
+        public String groupId;
+        @Label("Seconds Left")
+        public int seconds;
+    }
+
+    @Name("cn.ymjacky.QueueDispatch")
+    @Label("Group Dispatch")
+    @Description("Arena reservation, hooks and the teleport fan-out for one group")
+    @Category({"SPTools", "Queue"})
+    @Enabled(false)
+    @StackTrace(false)
+    public static final class Dispatch extends Event {
+        @Label("Queue")
+        public String queue;
+        @Label("Group")
+        public String groupId;
+        @Label("Players")
+        public int players;
+        @Label("Arena")
+        public String arena;
+        @Label("Outcome")
+        public String outcome;
+    }
+
+    @Name("cn.ymjacky.QueueSchedulerTask")
+    @Label("Scheduler Task")
+    @Description("One queue scheduler callback; periodic passes leave the queue and group empty")
+    @Category({"SPTools", "Scheduler"})
+    @Enabled(false)
+    @StackTrace(false)
+    public static final class SchedulerTask extends Event {
+        @Label("Task")
+        public String task;
+        @Label("Queue")
+        public String queue;
+        @Label("Group")
+        public String groupId;
+    }
+}
@@ -0,0 +1,83 @@
+package cn.ymjacky.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// Shared by every instance of a queue. All recorders are lock-free and allocation-free, so they stay on in production.
+public class QueueMetrics {
+
+    private final LatencyHistogram joinToGroup;
+    private final LatencyHistogram confirmation;
+    private final WindowedCounter recentGroups;
+    private final LongAdder joined;
+    private final LongAdder formed;
+    private final LongAdder started;
+    private final LongAdder timedOut;
+    private final LongAdder cancelled;
+
+    public QueueMetrics() {
+        this.joinToGroup = new LatencyHistogram();
+        this.confirmation = new LatencyHistogram();
+        this.recentGroups = new WindowedCounter(60);
+        this.joined = new LongAdder();
+        this.formed = new LongAdder();
+        this.started = new LongAdder();
+        this.timedOut = new LongAdder();
+        this.cancelled = new LongAdder();
+    }
+
+    public void recordJoin(int players) {
+        joined.add(players);
+    }
+
+    public void recordGroupFormed(long now) {
+        formed.increment();
+        recentGroups.record(now, 1);
+    }
+
+    public void recordJoinToGroup(long millis) {
+        joinToGroup.record(millis);
+    }
+
+    public void recordConfirmation(long millis) {
+        confirmation.record(millis);
+    }
+
+    public void recordStarted() {
+        started.increment();
+    }
+
+    public void recordTimedOut() {
+        timedOut.increment();
+    }
+
+    public void recordCancelled() {
+        cancelled.increment();
+    }
+
+    public long getEnded() {
+        return started.sum() + timedOut.sum() + cancelled.sum();
+    }
+
+    public double getTimeoutRatio() {
+        long ended = getEnded();
+        return ended == 0 ? 0 : timedOut.sum() / (double) ended;
+    }
+
+    public double getCancelRatio() {
+        long ended = getEnded();
+        return ended == 0 ? 0 : cancelled.sum() / (double) ended;
+    }
+
+    public long getGroupsLastMinute(long now) {
+        return recentGroups.sum(now);
+    }
+
+    // Getters
+    public LatencyHistogram getJoinToGroup() { return joinToGroup; }
+    public LatencyHistogram getConfirmation() { return confirmation; }
+    public long getJoined() { return joined.sum(); }
+    public long getFormed() { return formed.sum(); }
+    public long getStarted() { return started.sum(); }
+    public long getTimedOut() { return timedOut.sum(); }
+    public long getCancelled() { return cancelled.sum(); }
+}
@@ -0,0 +1,64 @@
+package cn.ymjacky.metrics;
+
+public class RateEstimator {
+
+    private static final double DEFAULT_ALPHA = 0.2;
+
+    private final double alpha;
+    private long lastEventAt;
+    private double meanInterval;
+    private double meanSize;
+    private long events;
+
+    public RateEstimator() {
+        this(DEFAULT_ALPHA);
+    }
+
+    public RateEstimator(double alpha) {
+        this.alpha = alpha;
+        this.lastEventAt = -1;
+    }
+
+    // O(1) exponentially weighted update of the gap between events and of the event size; no history is kept.
+    public synchronized void record(long now, int size) {
+        if (events == 0) {
+            meanSize = size;
+        } else {
+            meanSize += alpha * (size - meanSize);
+        }
+        if (lastEventAt >= 0) {
+            double interval = Math.max(0, now - lastEventAt);
+            meanInterval = events == 1 ? interval : meanInterval + alpha * (interval - meanInterval);
+        }
+        lastEventAt = now;
+        events++;
+    }
+
+    public synchronized double getMeanIntervalMillis() {
+        return events < 2 ? -1 : meanInterval;
+    }
+
+    // A long silence since the last event stretches the estimate instead of leaving it stale.
+    public synchronized double getMeanIntervalMillis(long now) {
+        if (events < 2) {
+            return -1;
+        }
+        return Math.max(meanInterval, now - lastEventAt);
+    }
+
+    public synchronized double getMeanSize() {
+        return events == 0 ? -1 : meanSize;
+    }
+
+    public synchronized double getRatePerMinute(long now) {
+        double interval = getMeanIntervalMillis(now);
+        if (interval < 0) {
+            return -1;
+        }
+        return interval == 0 ? meanSize * 60_000 : meanSize * 60_000 / interval;
+    }
+
+    public synchronized long getEvents() {
+        return events;
+    }
+}
@@ -0,0 +1,50 @@
+package cn.ymjacky.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Events over a sliding window of one-second buckets; recording is a single CAS loop and never allocates.
+// Each bucket packs its second (high 32 bits, unsigned) and its count (low 32 bits) into one long, so resetting a
+// stale bucket and counting into it can't lose an increment.
+public class WindowedCounter {
+
+    private static final long COUNT_MASK = 0xFFFFFFFFL;
+
+    private final int seconds;
+    private final AtomicLongArray buckets;
+
+    public WindowedCounter(int seconds) {
+        this.seconds = seconds;
+        this.buckets = new AtomicLongArray(seconds);
+    }
+
+    public void record(long now, long delta) {
+        long second = now / 1000;
+        int index = (int) (second % seconds);
+        long stamp = second & COUNT_MASK;
+        while (true) {
+            long bucket = buckets.get(index);
+            long count = bucket >>> 32 == stamp ? bucket & COUNT_MASK : 0;
+            long next = stamp << 32 | Math.min(COUNT_MASK, count + delta);
+            if (buckets.compareAndSet(index, bucket, next)) {
+                return;
+            }
+        }
+    }
+
+    public long sum(long now) {
+        long second = now / 1000;
+        long total = 0;
+        for (int i = 0; i < seconds; i++) {
+            long bucket = buckets.get(i);
+            long age = (second - (bucket >>> 32)) & COUNT_MASK;
+            if (age < seconds) {
+                total += bucket & COUNT_MASK;
+            }
+        }
+        return total;
+    }
+
+    public int getSeconds() {
+        return seconds;
+    }
+}
@@ -0,0 +1,26 @@
+package cn.ymjacky.queue;
+
+import cn.ymjacky.config.ArenaTarget;
+
+/**
+ * Lifecycle callbacks for the arena a group has been assigned to.
+ * <p>
+ * {@code prepare} fires as soon as a group is formed and an arena is reserved, so provisioning can overlap the
+ * confirmation window. Exactly one of {@code commit} (players are being sent in) or {@code abort} (the group
+ * timed out, was cancelled or emptied) follows. Callbacks may run on any thread and must not block.
+ * <p>
+ * The join command's own result only reports unknown commands, so a hook that learns the arena refused the players
+ * should call {@code QueueManager.getArenaPool(group.getQueue().getConfig()).reportFailure(arena)} to put it on
+ * cooldown.
+ */
+public interface ArenaHook {
+
+    default void prepare(QueueGroup group, ArenaTarget arena) {
+    }
+
+    default void commit(QueueGroup group, ArenaTarget arena) {
+    }
+
+    default void abort(QueueGroup group, ArenaTarget arena) {
+    }
+}
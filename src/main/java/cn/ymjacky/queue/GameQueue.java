@@ -1,61 +1,362 @@
 package cn.ymjacky.queue;
 
 import cn.ymjacky.config.QueueConfig;
+import cn.ymjacky.metrics.QueueMetrics;
+import cn.ymjacky.metrics.RateEstimator;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 public class GameQueue {
     private final QueueConfig config;
-    private final Set<QueuePlayer> players;
-    private final Queue<QueuePlayer> playerQueue;
+    private final int instance;
+    private final PriorityLane[] lanes;
+    private final Map<String, PriorityLane> lanesByTier;
+    private final PriorityLane defaultLane;
+    private final LongAdder packedGroups;
+    private final LongAdder packedPlayers;
+    private final LongAdder packedSlots;
+    private final RateEstimator arrivals;
+    private final RateEstimator formations;
+    private final QueueMetrics metrics;
 
     public GameQueue(QueueConfig config) {
+        this(config, 1);
+    }
+
+    public GameQueue(QueueConfig config, int instance) {
+        this(config, instance, new QueueMetrics());
+    }
+
+    // Overflow instances pass the primary instance's metrics so a queue reports as one.
+    public GameQueue(QueueConfig config, int instance, QueueMetrics metrics) {
         this.config = config;
-        this.players = ConcurrentHashMap.newKeySet();
-        this.playerQueue = new LinkedList<>();
+        this.instance = instance;
+        this.lanesByTier = new HashMap<>();
+        List<PriorityLane> configured = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : config.getLaneWeights().entrySet()) {
+            PriorityLane lane = new PriorityLane(entry.getKey().toLowerCase(), entry.getValue());
+            configured.add(lane);
+            lanesByTier.put(lane.getName(), lane);
+        }
+        PriorityLane fallback = lanesByTier.get("default");
+        if (fallback == null) {
+            fallback = new PriorityLane("default", 1);
+            configured.add(fallback);
+            lanesByTier.put("default", fallback);
+        }
+        this.defaultLane = fallback;
+        this.lanes = configured.toArray(new PriorityLane[0]);
+        this.packedGroups = new LongAdder();
+        this.packedPlayers = new LongAdder();
+        this.packedSlots = new LongAdder();
+        this.arrivals = new RateEstimator();
+        this.formations = new RateEstimator();
+        this.metrics = metrics;
     }
 
     public boolean addPlayer(QueuePlayer player) {
-        if (players.size() >= config.getMaxPlayers()) {
+        boolean added = laneOf(player).getPlayers().offer(player, limitFor(player));
+        if (added) {
+            player.setQueue(this);
+            arrivals.record(System.currentTimeMillis(), 1);
+            metrics.recordJoin(1);
+        }
+
+        return added;
+    }
+
+    // Not counted as an arrival: the players were already queued before a restart or an owner change.
+    public boolean restoreUnit(List<QueuePlayer> unit) {
+        if (unit.isEmpty() || unit.size() > config.getMaxPlayers()) {
             return false;
         }
+        QueuePlayer leader = unit.getFirst();
+        boolean added = laneOf(leader).getPlayers().offerOrdered(unit, limitFor(leader));
+        if (added) {
+            for (QueuePlayer player : unit) {
+                player.setQueue(this);
+            }
+        }
 
-        boolean added = players.add(player);
+        return added;
+    }
+
+    public boolean addParty(List<QueuePlayer> party) {
+        if (party.isEmpty() || party.size() > config.getMaxPlayers()) {
+            return false;
+        }
+        QueuePlayer leader = party.getFirst();
+        boolean added = laneOf(leader).getPlayers().offerAll(party, limitFor(leader));
         if (added) {
-            playerQueue.add(player);
-            player.setQueue(this);
+            for (QueuePlayer player : party) {
+                player.setQueue(this);
+            }
+            arrivals.record(System.currentTimeMillis(), party.size());
+            metrics.recordJoin(party.size());
         }
 
         return added;
     }
 
     public void removePlayer(QueuePlayer player) {
-        boolean removed = players.remove(player);
-        if (removed) {
-            playerQueue.remove(player);
+        QueuePlayer removed = laneOf(player).getPlayers().remove(player.getPlayerId());
+        if (removed != null) {
+            removed.setQueue(null);
+        }
+    }
+
+    // Picks whole units lane by lane with smooth weighted round-robin until the group is full;
+    // a lane drops out of this pass once nothing left in it fits the remaining slots.
+    public synchronized List<QueuePlayer> pollGroup(int maxSize, int minSize) {
+        if (maxSize <= 0 || getPlayerCount() < Math.max(1, minSize)) {
+            return Collections.emptyList();
+        }
+        int laneCount = lanes.length;
+        UUID[] cursors = new UUID[laneCount];
+        boolean[] exhausted = new boolean[laneCount];
+        int[] credits = new int[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            credits[i] = lanes[i].getCredit();
+        }
+
+        List<QueuePlayer> selected = new ArrayList<>(maxSize);
+        List<PriorityLane> selectedLanes = new ArrayList<>(maxSize);
+        int remaining = maxSize;
+        while (remaining > 0) {
+            int chosen = -1;
+            int totalWeight = 0;
+            for (int i = 0; i < laneCount; i++) {
+                if (exhausted[i] || lanes[i].getSize() == 0) {
+                    continue;
+                }
+                credits[i] += lanes[i].getWeight();
+                totalWeight += lanes[i].getWeight();
+                if (chosen < 0 || credits[i] > credits[chosen]) {
+                    chosen = i;
+                }
+            }
+            if (chosen < 0) {
+                break;
+            }
+            credits[chosen] -= totalWeight;
+
+            List<QueuePlayer> unit = lanes[chosen].getPlayers().peekUnit(cursors[chosen], remaining);
+            if (unit.isEmpty()) {
+                for (int i = 0; i < laneCount; i++) {
+                    if (!exhausted[i] && lanes[i].getSize() > 0) {
+                        credits[i] -= lanes[i].getWeight();
+                    }
+                }
+                credits[chosen] += totalWeight;
+                exhausted[chosen] = true;
+                continue;
+            }
+            cursors[chosen] = unit.getLast().getPlayerId();
+            if (!claimAll(unit)) {
+                continue;
+            }
+            for (QueuePlayer player : unit) {
+                selected.add(player);
+                selectedLanes.add(lanes[chosen]);
+            }
+            remaining -= unit.size();
+        }
+        if (selected.isEmpty() || selected.size() < minSize) {
+            for (QueuePlayer player : selected) {
+                player.getTicket().release(this);
+            }
+            return Collections.emptyList();
+        }
+
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < laneCount; i++) {
+            lanes[i].setCredit(credits[i]);
+        }
+        for (int i = 0; i < selected.size(); i++) {
+            QueuePlayer player = selected.get(i);
+            PriorityLane lane = selectedLanes.get(i);
+            lane.getPlayers().remove(player.getPlayerId());
+            lane.recordServed(player, now);
+            metrics.recordJoinToGroup(now - player.getJoinedAt());
             player.setQueue(null);
         }
+        packedGroups.increment();
+        packedPlayers.add(selected.size());
+        packedSlots.add(config.getMaxPlayers());
+        formations.record(now, selected.size());
+        metrics.recordGroupFormed(now);
+        return selected;
     }
 
     public void clear() {
-        for (QueuePlayer player : players) {
-            player.setQueue(null);
+        for (PriorityLane lane : lanes) {
+            for (QueuePlayer player : lane.getPlayers().snapshot()) {
+                player.setQueue(null);
+            }
+            lane.getPlayers().clear();
+            lane.setCredit(0);
         }
-        players.clear();
-        playerQueue.clear();
     }
 
     public boolean isFull() {
-        return players.size() >= config.getMaxPlayers();
+        return getPlayerCount() >= config.getCapacity();
+    }
+
+    public boolean hasFullGroup() {
+        return getPlayerCount() >= config.getMaxPlayers();
     }
 
     public int getPlayerCount() {
-        return players.size();
+        int count = 0;
+        for (PriorityLane lane : lanes) {
+            count += lane.getSize();
+        }
+        return count;
+    }
+
+    public QueuePlayer getOldestPlayer() {
+        QueuePlayer oldest = null;
+        for (PriorityLane lane : lanes) {
+            QueuePlayer head = lane.getPlayers().peekFirst();
+            if (head != null && (oldest == null || head.getJoinedAt() < oldest.getJoinedAt())) {
+                oldest = head;
+            }
+        }
+        return oldest;
+    }
+
+    // Expected place in the order of service, not the rank inside the player's own lane: by the time a lane has
+    // served its r-th player, weighted round-robin has taken about r * weight / ownWeight from every other lane,
+    // never more than that lane holds.
+    public int getPosition(UUID playerId) {
+        for (PriorityLane lane : lanes) {
+            int rank = lane.getPlayers().positionOf(playerId);
+            if (rank <= 0) {
+                continue;
+            }
+            long position = rank;
+            for (PriorityLane other : lanes) {
+                if (other != lane) {
+                    position += Math.min(other.getSize(), Math.round(rank * (double) other.getWeight() / lane.getWeight()));
+                }
+            }
+            return (int) position;
+        }
+        return 0;
+    }
+
+    public boolean contains(UUID playerId) {
+        for (PriorityLane lane : lanes) {
+            if (lane.getPlayers().contains(playerId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Expected wait in milliseconds for whoever stands at the given position, or -1 while there is not enough
+     * history. The player's own group still has to fill from new arrivals, and every group ahead of it costs one
+     * formation interval. Silence stretches the arrival gap but not the formation gap, since an idle queue forms
+     * nothing for lack of players rather than lack of throughput.
+     */
+    public long estimateWait(int position) {
+        long now = System.currentTimeMillis();
+        double groupSize = formations.getMeanSize();
+        if (groupSize <= 0) {
+            groupSize = config.getMaxPlayers();
+        }
+        int groupsAhead = Math.max(1, (int) Math.ceil(position / groupSize));
+
+        double fill = 0;
+        double missing = groupsAhead * groupSize - getPlayerCount();
+        if (missing > 0) {
+            double arrivalInterval = arrivals.getMeanIntervalMillis(now);
+            double arrivalSize = arrivals.getMeanSize();
+            if (arrivalInterval < 0 || arrivalSize <= 0) {
+                return -1;
+            }
+            fill = missing * arrivalInterval / arrivalSize;
+        }
+        double backlog = 0;
+        if (groupsAhead > 1) {
+            double formationInterval = formations.getMeanIntervalMillis();
+            if (formationInterval < 0) {
+                return -1;
+            }
+            backlog = (groupsAhead - 1) * formationInterval;
+        }
+        return Math.round(fill + backlog);
+    }
+
+    public long estimateJoinWait() {
+        return estimateWait(getPlayerCount() + 1);
+    }
+
+    public double getArrivalsPerMinute() {
+        return arrivals.getRatePerMinute(System.currentTimeMillis());
+    }
+
+    public double getGroupsPerMinute() {
+        double rate = formations.getRatePerMinute(System.currentTimeMillis());
+        double size = formations.getMeanSize();
+        return rate < 0 || size <= 0 ? -1 : rate / size;
+    }
+
+    public double getPackingEfficiency() {
+        long slots = packedSlots.sum();
+        return slots == 0 ? 1.0 : packedPlayers.sum() / (double) slots;
+    }
+
+    public long getPackedGroups() {
+        return packedGroups.sum();
+    }
+
+    // A unit is taken only if every member is still unclaimed; members already won by another
+    // queue are skipped here and swept from this queue once that queue finishes its claim.
+    private boolean claimAll(List<QueuePlayer> unit) {
+        for (int i = 0; i < unit.size(); i++) {
+            if (!unit.get(i).getTicket().claim(this)) {
+                for (int j = 0; j < i; j++) {
+                    unit.get(j).getTicket().release(this);
+                }
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private PriorityLane laneOf(QueuePlayer player) {
+        String tier = player.getTier();
+        return tier == null ? defaultLane : lanesByTier.getOrDefault(tier, defaultLane);
+    }
+
+    // Lane-local limit that keeps the whole queue within capacity.
+    private int limitFor(QueuePlayer player) {
+        if (player.canBypass()) {
+            return Integer.MAX_VALUE;
+        }
+        PriorityLane lane = laneOf(player);
+        return config.getCapacity() - getPlayerCount() + lane.getSize();
     }
 
     // Getters
     public String getName() { return config.getName(); }
+    public int getInstance() { return instance; }
+    public QueueMetrics getMetrics() { return metrics; }
+    public String getInstanceKey() {
+        return instance == 1 ? config.getName().toLowerCase() : config.getName().toLowerCase() + "#" + instance;
+    }
     public int getMaxPlayers() { return config.getMaxPlayers(); }
+    public int getCapacity() { return config.getCapacity(); }
     public QueueConfig getConfig() { return config; }
-    public List<QueuePlayer> getPlayers() { return new ArrayList<>(players); }
-}
\ No newline at end of file
+    public List<PriorityLane> getLanes() { return List.of(lanes); }
+
+    public List<QueuePlayer> getPlayers() {
+        List<QueuePlayer> players = new ArrayList<>();
+        for (PriorityLane lane : lanes) {
+            players.addAll(lane.getPlayers().snapshot());
+        }
+        return players;
+    }
+}
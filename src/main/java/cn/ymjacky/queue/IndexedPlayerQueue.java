@@ -0,0 +1,252 @@
+package cn.ymjacky.queue;
+
+import java.util.*;
+
+public class IndexedPlayerQueue {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private final Map<UUID, Node> index;
+    private Node head;
+    private Node tail;
+    private int[] tree;
+    private int nextSlot;
+
+    public IndexedPlayerQueue() {
+        this.index = new HashMap<>();
+        this.tree = new int[MIN_CAPACITY + 1];
+        this.nextSlot = 0;
+    }
+
+    public synchronized boolean offer(QueuePlayer player, int limit) {
+        UUID playerId = player.getPlayerId();
+        if (index.size() >= limit || index.containsKey(playerId)) {
+            return false;
+        }
+        if (nextSlot >= tree.length - 1) {
+            rebuild(1);
+        }
+
+        link(player);
+        return true;
+    }
+
+    public synchronized boolean offerAll(List<QueuePlayer> players, int limit) {
+        if (index.size() + players.size() > limit) {
+            return false;
+        }
+        Set<UUID> incoming = new HashSet<>();
+        for (QueuePlayer player : players) {
+            UUID playerId = player.getPlayerId();
+            if (index.containsKey(playerId) || !incoming.add(playerId)) {
+                return false;
+            }
+        }
+        if (nextSlot + players.size() >= tree.length - 1) {
+            rebuild(players.size());
+        }
+        for (QueuePlayer player : players) {
+            link(player);
+        }
+        return true;
+    }
+
+    // Inserts a unit by join time instead of at the tail, never inside another party;
+    // used to put restored or re-homed players back where they were.
+    public synchronized boolean offerOrdered(List<QueuePlayer> players, int limit) {
+        if (index.size() + players.size() > limit) {
+            return false;
+        }
+        Set<UUID> incoming = new HashSet<>();
+        for (QueuePlayer player : players) {
+            UUID playerId = player.getPlayerId();
+            if (index.containsKey(playerId) || !incoming.add(playerId)) {
+                return false;
+            }
+        }
+        long joinedAt = players.getFirst().getJoinedAt();
+        Node after = tail;
+        while (after != null && after.player.getJoinedAt() > joinedAt) {
+            after = after.prev;
+        }
+        while (after != null && after.next != null && after.player.getPartyId() != null
+                && after.next.player.isInParty(after.player.getPartyId())) {
+            after = after.next;
+        }
+        if (after == tail) {
+            if (nextSlot + players.size() >= tree.length - 1) {
+                rebuild(players.size());
+            }
+            for (QueuePlayer player : players) {
+                link(player);
+            }
+            return true;
+        }
+
+        Node next = after == null ? head : after.next;
+        Node prev = after;
+        for (QueuePlayer player : players) {
+            Node node = new Node(player, 0);
+            node.prev = prev;
+            if (prev == null) {
+                head = node;
+            } else {
+                prev.next = node;
+            }
+            index.put(player.getPlayerId(), node);
+            prev = node;
+        }
+        prev.next = next;
+        next.prev = prev;
+        rebuild(0);
+        return true;
+    }
+
+    public synchronized QueuePlayer remove(UUID playerId) {
+        Node node = index.remove(playerId);
+        if (node == null) {
+            return null;
+        }
+        unlink(node);
+        return node.player;
+    }
+
+    // Returns the first whole unit (a party or a lone player) after the given player that fits within the limit.
+    public synchronized List<QueuePlayer> peekUnit(UUID afterId, int limit) {
+        Node node;
+        if (afterId == null) {
+            node = head;
+        } else {
+            Node after = index.get(afterId);
+            node = after == null ? null : after.next;
+        }
+        while (node != null) {
+            String partyId = node.player.getPartyId();
+            Node last = node;
+            int unitSize = 1;
+            while (partyId != null && last.next != null && last.next.player.isInParty(partyId)) {
+                last = last.next;
+                unitSize++;
+            }
+            if (unitSize <= limit) {
+                List<QueuePlayer> unit = new ArrayList<>(unitSize);
+                for (Node member = node; member != last.next; member = member.next) {
+                    unit.add(member.player);
+                }
+                return unit;
+            }
+            node = last.next;
+        }
+        return Collections.emptyList();
+    }
+
+    public synchronized QueuePlayer peekFirst() {
+        return head == null ? null : head.player;
+    }
+
+    public synchronized int positionOf(UUID playerId) {
+        Node node = index.get(playerId);
+        if (node == null) {
+            return 0;
+        }
+        int position = 0;
+        for (int i = node.slot + 1; i > 0; i -= i & -i) {
+            position += tree[i];
+        }
+        return position;
+    }
+
+    public synchronized boolean contains(UUID playerId) {
+        return index.containsKey(playerId);
+    }
+
+    public synchronized int size() {
+        return index.size();
+    }
+
+    public synchronized List<QueuePlayer> snapshot() {
+        List<QueuePlayer> players = new ArrayList<>(index.size());
+        for (Node node = head; node != null; node = node.next) {
+            players.add(node.player);
+        }
+        return players;
+    }
+
+    public synchronized void clear() {
+        index.clear();
+        head = null;
+        tail = null;
+        tree = new int[MIN_CAPACITY + 1];
+        nextSlot = 0;
+    }
+
+    private void link(QueuePlayer player) {
+        Node node = new Node(player, nextSlot++);
+        node.prev = tail;
+        if (tail == null) {
+            head = node;
+        } else {
+            tail.next = node;
+        }
+        tail = node;
+        index.put(player.getPlayerId(), node);
+        update(node.slot, 1);
+    }
+
+    private void unlink(Node node) {
+        if (node.prev == null) {
+            head = node.next;
+        } else {
+            node.prev.next = node.next;
+        }
+        if (node.next == null) {
+            tail = node.prev;
+        } else {
+            node.next.prev = node.prev;
+        }
+        node.prev = null;
+        node.next = null;
+        update(node.slot, -1);
+        if (head == null) {
+            Arrays.fill(tree, 0);
+            nextSlot = 0;
+        }
+    }
+
+    private void update(int slot, int delta) {
+        for (int i = slot + 1; i < tree.length; i += i & -i) {
+            tree[i] += delta;
+        }
+    }
+
+    // Renumbers live nodes once slots run out; happens at most once per capacity/2 offers.
+    private void rebuild(int incoming) {
+        int size = index.size() + incoming;
+        int capacity = Math.max(MIN_CAPACITY, Integer.highestOneBit(Math.max(1, size)) << 2);
+        tree = new int[capacity + 1];
+        int slot = 0;
+        for (Node node = head; node != null; node = node.next) {
+            node.slot = slot++;
+            tree[slot] = 1;
+        }
+        for (int i = 1; i <= capacity; i++) {
+            int parent = i + (i & -i);
+            if (parent <= capacity) {
+                tree[parent] += tree[i];
+            }
+        }
+        nextSlot = slot;
+    }
+
+    private static final class Node {
+        private final QueuePlayer player;
+        private int slot;
+        private Node prev;
+        private Node next;
+
+        private Node(QueuePlayer player, int slot) {
+            this.player = player;
+            this.slot = slot;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package cn.ymjacky.queue;
+
+import cn.ymjacky.config.QueueConfig;
+import cn.ymjacky.metrics.LatencyHistogram;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+public class Matchmaker {
+
+    private final QueueManager queueManager;
+    private final Map<String, LatencyHistogram> waitToGame;
+    private final LatencyHistogram totalWaitToGame;
+    private final LongAdder relaxedGroups;
+    private final LongAdder passes;
+    private final LongAdder batchGroups;
+
+    public Matchmaker(QueueManager queueManager) {
+        this.queueManager = queueManager;
+        this.waitToGame = new ConcurrentHashMap<>();
+        this.totalWaitToGame = new LatencyHistogram();
+        this.relaxedGroups = new LongAdder();
+        this.passes = new LongAdder();
+        this.batchGroups = new LongAdder();
+    }
+
+    public void runPass(boolean relax) {
+        long now = System.currentTimeMillis();
+        List<QueueGroup> formed = new ArrayList<>();
+        for (QueueShard shard : queueManager.getShards()) {
+            formed.addAll(queueManager.formFullGroups(shard));
+            if (relax) {
+                QueueGroup group = formRelaxedGroup(shard, now);
+                if (group != null) {
+                    formed.add(group);
+                }
+            }
+        }
+        batchGroups.add(formed.size());
+        if (!formed.isEmpty()) {
+            queueManager.scheduleGroups(formed);
+        }
+        passes.increment();
+    }
+
+    private QueueGroup formRelaxedGroup(QueueShard shard, long now) {
+        GameQueue queue = shard.getQueue();
+        QueueConfig config = queue.getConfig();
+        if (!config.isAutoStart()) {
+            return null;
+        }
+        int waiting = queue.getPlayerCount();
+        if (waiting < Math.max(1, config.getMinPlayers())) {
+            return null;
+        }
+        QueuePlayer oldest = queue.getOldestPlayer();
+        if (oldest == null) {
+            return null;
+        }
+        int target = targetSize(config, now - oldest.getJoinedAt());
+        if (waiting < target) {
+            return null;
+        }
+        QueueGroup group = queueManager.formGroupUnscheduled(shard, config.getMaxPlayers(), target);
+        if (group != null && group.getSize() < config.getMaxPlayers()) {
+            relaxedGroups.increment();
+        }
+        return group;
+    }
+
+    public static int targetSize(QueueConfig config, long waitedMillis) {
+        long relaxAfterMillis = config.getRelaxAfter() * 1000L;
+        if (waitedMillis < relaxAfterMillis) {
+            return config.getMaxPlayers();
+        }
+        long intervalMillis = Math.max(1, config.getRelaxInterval()) * 1000L;
+        long steps = 1 + (waitedMillis - relaxAfterMillis) / intervalMillis;
+        return (int) Math.max(Math.max(1, config.getMinPlayers()), config.getMaxPlayers() - steps);
+    }
+
+    public void recordGameStart(QueueGroup group) {
+        long now = System.currentTimeMillis();
+        LatencyHistogram histogram = waitToGame.computeIfAbsent(
+                group.getQueue().getName().toLowerCase(), _ -> new LatencyHistogram());
+        for (QueuePlayer player : group.getPlayers()) {
+            long waited = now - player.getJoinedAt();
+            histogram.record(waited);
+            totalWaitToGame.record(waited);
+        }
+    }
+
+    public LatencyHistogram getWaitToGame(String queueName) {
+        return waitToGame.get(queueName.toLowerCase());
+    }
+
+    public long getMedianWaitMillis() {
+        return totalWaitToGame.percentile(50);
+    }
+
+    public long getP99WaitMillis() {
+        return totalWaitToGame.percentile(99);
+    }
+
+    public long getRelaxedGroups() {
+        return relaxedGroups.sum();
+    }
+
+    public long getPasses() {
+        return passes.sum();
+    }
+
+    public long getBatchGroups() {
+        return batchGroups.sum();
+    }
+}
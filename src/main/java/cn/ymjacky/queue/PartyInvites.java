@@ -0,0 +1,131 @@
+package cn.ymjacky.queue;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Party invitations waiting for consent. A party only joins a queue once every invited player has accepted,
+// so one player's command never queues anybody else.
+public class PartyInvites {
+
+    private final long timeoutMillis;
+    private final Map<UUID, Invite> byLeader;
+    private final Map<UUID, Invite> byMember;
+
+    public PartyInvites(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+        this.byLeader = new HashMap<>();
+        this.byMember = new HashMap<>();
+    }
+
+    // Replaces the leader's earlier invite. Returns null when a member is still waiting on another leader's invite,
+    // since a player can only answer one invite at a time.
+    public synchronized Invite invite(UUID leader, String queue, Collection<UUID> members) {
+        long now = System.currentTimeMillis();
+        for (UUID member : members) {
+            Invite other = byMember.get(member);
+            if (other != null && other.leader != leader && !other.isExpired(now)) {
+                return null;
+            }
+        }
+        Invite previous = byLeader.get(leader);
+        if (previous != null) {
+            remove(previous);
+        }
+        Invite invite = new Invite(leader, queue, List.copyOf(members), now + timeoutMillis);
+        byLeader.put(leader, invite);
+        for (UUID member : invite.members) {
+            Invite stale = byMember.put(member, invite);
+            if (stale != null && stale != previous) {
+                remove(stale);
+            }
+        }
+        return invite;
+    }
+
+    // The invite waiting on this player, expired or not, or null.
+    public synchronized Invite pending(UUID member) {
+        return byMember.get(member);
+    }
+
+    // Returns whether this acceptance completed the party; a completed invite is removed.
+    public synchronized boolean accept(Invite invite, UUID member) {
+        if (byMember.get(member) != invite || !invite.accepted.add(member)) {
+            return false;
+        }
+        if (invite.accepted.size() < invite.members.size()) {
+            return false;
+        }
+        remove(invite);
+        return true;
+    }
+
+    // Removes and returns the invites that have run out, so their players can be told.
+    public synchronized List<Invite> expire(long now) {
+        List<Invite> expired = new ArrayList<>();
+        for (Invite invite : byLeader.values()) {
+            if (invite.isExpired(now)) {
+                expired.add(invite);
+            }
+        }
+        expired.forEach(this::remove);
+        return expired;
+    }
+
+    // Removes and returns every invite the player leads or was invited to, e.g. when they quit.
+    public synchronized List<Invite> drop(UUID player) {
+        List<Invite> dropped = new ArrayList<>();
+        Invite led = byLeader.get(player);
+        if (led != null) {
+            dropped.add(led);
+        }
+        Invite joined = byMember.get(player);
+        if (joined != null && joined != led) {
+            dropped.add(joined);
+        }
+        dropped.forEach(this::remove);
+        return dropped;
+    }
+
+    public synchronized void remove(Invite invite) {
+        byLeader.remove(invite.leader, invite);
+        for (UUID member : invite.members) {
+            byMember.remove(member, invite);
+        }
+    }
+
+    public static final class Invite {
+        private final UUID leader;
+        private final String queue;
+        private final List<UUID> members;
+        private final Set<UUID> accepted;
+        private final long expiresAt;
+
+        private Invite(UUID leader, String queue, List<UUID> members, long expiresAt) {
+            this.leader = leader;
+            this.queue = queue;
+            this.members = members;
+            this.accepted = ConcurrentHashMap.newKeySet();
+            this.expiresAt = expiresAt;
+        }
+
+        public UUID getLeader() {
+            return leader;
+        }
+
+        public String getQueue() {
+            return queue;
+        }
+
+        public List<UUID> getMembers() {
+            return members;
+        }
+
+        public int getAcceptedCount() {
+            return accepted.size();
+        }
+
+        public boolean isExpired(long now) {
+            return now >= expiresAt;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package cn.ymjacky.queue;
+
+import cn.ymjacky.metrics.LatencyHistogram;
+
+import java.util.concurrent.atomic.LongAdder;
+
+public class PriorityLane {
+
+    private final String name;
+    private final int weight;
+    private final IndexedPlayerQueue players;
+    private final LatencyHistogram waits;
+    private final LongAdder served;
+    private int credit;
+
+    public PriorityLane(String name, int weight) {
+        this.name = name;
+        this.weight = Math.max(1, weight);
+        this.players = new IndexedPlayerQueue();
+        this.waits = new LatencyHistogram();
+        this.served = new LongAdder();
+    }
+
+    void recordServed(QueuePlayer player, long now) {
+        waits.record(now - player.getJoinedAt());
+        served.increment();
+    }
+
+    // Smooth weighted round-robin credit, only touched under the owning queue's lock.
+    int getCredit() { return credit; }
+    void setCredit(int credit) { this.credit = credit; }
+
+    IndexedPlayerQueue getPlayers() { return players; }
+
+    // Getters
+    public String getName() { return name; }
+    public int getWeight() { return weight; }
+    public int getSize() { return players.size(); }
+    public long getServed() { return served.sum(); }
+    public LatencyHistogram getWaits() { return waits; }
+}
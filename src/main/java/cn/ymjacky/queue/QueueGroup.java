@@ -1,168 +1,224 @@
 package cn.ymjacky.queue;
 
-import cn.ymjacky.SPToolsPlugin;
-import org.bukkit.Sound;
-import org.bukkit.SoundCategory;
+import cn.ymjacky.metrics.QueueEvents;
+import cn.ymjacky.task.RegionFanout;
 import cn.ymjacky.manager.ConfigurationManager;
+import net.kyori.adventure.key.Key;
+import net.kyori.adventure.sound.Sound;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 public class QueueGroup {
+    // Adventure sounds are plain keys, so building a group needs no server registry.
+    private static final Sound READY_SOUND = sound("block.note_block.pling", 1.0f);
+    private static final Sound COUNTDOWN_SOUND = sound("block.note_block.pling", 0.5f);
+    private static final Sound COUNTDOWN_FINAL_SOUND = sound("block.note_block.hat", 0.5f);
+    private static final Sound CANCEL_SOUND = sound("entity.villager.no", 1.0f);
+
     private final String id;
     private final GameQueue queue;
-    private final List<QueuePlayer> players;
-    private final Map<UUID, Boolean> confirmations;
-    private int countdownSeconds;
-
-    public QueueGroup(GameQueue queue, List<QueuePlayer> players) {
+    private final Map<UUID, QueuePlayer> members;
+    private final Set<UUID> confirmed;
+    private final AtomicInteger confirmedCount;
+    private final AtomicReference<State> state;
+    private final AtomicInteger countdownSeconds;
+    private final long formedAt;
+    private volatile long lastConfirmedAt;
+    private final RegionFanout fanout;
+    private final ConfigurationManager configManager;
+
+    public QueueGroup(GameQueue queue, List<QueuePlayer> players, RegionFanout fanout,
+                      ConfigurationManager configManager) {
         this.id = UUID.randomUUID().toString().substring(0, 8);
         this.queue = queue;
-        this.players = new ArrayList<>(players);
-        this.confirmations = new ConcurrentHashMap<>();
-        this.countdownSeconds = queue.getConfig().getCountdownTime();
+        this.members = new ConcurrentHashMap<>();
+        this.confirmed = ConcurrentHashMap.newKeySet();
+        this.confirmedCount = new AtomicInteger();
+        this.state = new AtomicReference<>(State.FORMING);
+        this.countdownSeconds = new AtomicInteger(queue.getConfig().getCountdownTime());
+        this.fanout = fanout;
+        this.configManager = configManager;
+        this.formedAt = System.currentTimeMillis();
         for (QueuePlayer player : players) {
-            confirmations.put(player.getPlayer().getUniqueId(), false);
+            members.put(player.getPlayerId(), player);
         }
     }
 
-    public void notifyReady() {
-
-        SPToolsPlugin plugin = SPToolsPlugin.getInstance();
-        ConfigurationManager configManager = plugin.getConfigManager();
+    public boolean beginConfirmation() {
+        if (!state.compareAndSet(State.FORMING, State.CONFIRMING)) {
+            return false;
+        }
 
         String readyMessage = configManager.getMessage("queue.group.ready");
         String confirmPrompt = configManager.getMessage("queue.group.confirm-prompt");
 
-        for (QueuePlayer queuePlayer : players) {
-            if (queuePlayer.isOnline()) {
-                queuePlayer.getPlayer().sendMessage(readyMessage);
-                queuePlayer.getPlayer().sendMessage(confirmPrompt);
-
-                queuePlayer.getPlayer().playSound(
-                        queuePlayer.getPlayer().getLocation(),
-                        Sound.BLOCK_NOTE_BLOCK_PLING,
-                        SoundCategory.PLAYERS,
-                        1.0f,
-                        1.0f
-                );
-            }
-        }
+        fanout.send(members.values(), RegionFanout.Payload.of(readyMessage, confirmPrompt)
+                .withSound(READY_SOUND));
+        return true;
     }
 
-    public boolean confirmPlayer(QueuePlayer queuePlayer) {
-        if (confirmations.containsKey(queuePlayer.getPlayer().getUniqueId())) {
-            confirmations.put(queuePlayer.getPlayer().getUniqueId(), true);
-            return true;
+    public boolean confirmPlayer(UUID playerId) {
+        State current = state.get();
+        if (current != State.FORMING && current != State.CONFIRMING) {
+            return false;
         }
-        return false;
+        if (!members.containsKey(playerId) || !confirmed.add(playerId)) {
+            return false;
+        }
+        confirmedCount.incrementAndGet();
+        if (!members.containsKey(playerId) && confirmed.remove(playerId)) {
+            confirmedCount.decrementAndGet();
+            return false;
+        }
+        lastConfirmedAt = System.currentTimeMillis();
+        queue.getMetrics().recordConfirmation(lastConfirmedAt - formedAt);
+        QueueEvents.confirmation(this, playerId, lastConfirmedAt - formedAt);
+        return true;
     }
 
     public boolean allConfirmed() {
-        return !confirmations.containsValue(false);
+        return !members.isEmpty() && confirmedCount.get() >= members.size();
     }
 
-    public void updateCountdown() {
-        if (countdownSeconds <= 0) {
-            teleportPlayers();
-            return;
+    public boolean beginCountdown() {
+        if (!allConfirmed() || !state.compareAndSet(State.CONFIRMING, State.COUNTDOWN)) {
+            return false;
         }
 
-        SPToolsPlugin plugin = SPToolsPlugin.getInstance();
-        ConfigurationManager configManager = plugin.getConfigManager();
-
-        String countdownMessage = configManager.getMessage("queue.group.countdown", "seconds", countdownSeconds);
-        broadcastMessage(countdownMessage);
-
-        for (QueuePlayer queuePlayer : players) {
-            if (queuePlayer.isOnline()) {
-                queuePlayer.getPlayer().playSound(
-                        queuePlayer.getPlayer().getLocation(),
-                        countdownSeconds <= 3 ? Sound.BLOCK_NOTE_BLOCK_HAT : Sound.BLOCK_NOTE_BLOCK_PLING,
-                        SoundCategory.PLAYERS,
-                        0.5f,
-                        1.0f
-                );
+        broadcastMessage(configManager.getMessage("queue.group.confirm-all"));
+        return true;
+    }
+
+    public boolean updateCountdown() {
+        if (state.get() != State.COUNTDOWN) {
+            return false;
+        }
+        QueueEvents.CountdownTick event = new QueueEvents.CountdownTick();
+        event.begin();
+        int seconds = countdownSeconds.getAndDecrement();
+        try {
+            return tickCountdown(seconds);
+        } finally {
+            if (event.shouldCommit()) {
+                event.queue = queue.getInstanceKey();
+                event.groupId = id;
+                event.seconds = seconds;
+                event.commit();
             }
         }
+    }
+
+    private boolean tickCountdown(int seconds) {
+        if (seconds <= 0) {
+            return state.compareAndSet(State.COUNTDOWN, State.DISPATCHING);
+        }
 
-        countdownSeconds--;
+        String countdownMessage = configManager.getMessage("queue.group.countdown", "seconds", seconds);
+        fanout.send(members.values(), RegionFanout.Payload.of(countdownMessage).withSound(
+                seconds <= 3 ? COUNTDOWN_FINAL_SOUND : COUNTDOWN_SOUND));
+        return false;
     }
 
-    private void teleportPlayers() {
-        SPToolsPlugin plugin = SPToolsPlugin.getInstance();
-        ConfigurationManager configManager = plugin.getConfigManager();
+    public boolean complete(String gameCommand, Consumer<Boolean> commandResult) {
+        if (!state.compareAndSet(State.DISPATCHING, State.DONE)) {
+            return false;
+        }
+        queue.getMetrics().recordStarted();
 
         String teleportingMessage = configManager.getMessage("queue.group.teleporting");
-        broadcastMessage(teleportingMessage);
 
-        String gameCommand = queue.getConfig().getGameCommand();
-
-        for (QueuePlayer queuePlayer : players) {
-            if (queuePlayer.isOnline()) {
-                queuePlayer.getPlayer().getScheduler().run(plugin, _ -> plugin.getServer().dispatchCommand(queuePlayer.getPlayer(), gameCommand), null);
-            }
-        }
+        fanout.send(members.values(), RegionFanout.Payload.of(teleportingMessage).withCommand(gameCommand, commandResult));
+        return true;
     }
 
-    public void cancel() {
-        SPToolsPlugin plugin = SPToolsPlugin.getInstance();
-        ConfigurationManager configManager = plugin.getConfigManager();
+    public boolean cancel() {
+        State current;
+        do {
+            current = state.get();
+            if (current.isTerminal()) {
+                return false;
+            }
+        } while (!state.compareAndSet(current, State.CANCELLED));
+        queue.getMetrics().recordCancelled();
 
         String cancelledMessage = configManager.getMessage("queue.group.cancelled");
-        broadcastMessage(cancelledMessage);
-
-        for (QueuePlayer queuePlayer : players) {
-            if (queuePlayer.isOnline()) {
-                queuePlayer.getPlayer().playSound(
-                        queuePlayer.getPlayer().getLocation(),
-                        Sound.ENTITY_VILLAGER_NO,
-                        SoundCategory.PLAYERS,
-                        1.0f,
-                        1.0f
-                );
-            }
-        }
+        fanout.send(members.values(), RegionFanout.Payload.of(cancelledMessage)
+                .withSound(CANCEL_SOUND));
+        return true;
     }
 
-    public void timeout() {
-        SPToolsPlugin plugin = SPToolsPlugin.getInstance();
-        ConfigurationManager configManager = plugin.getConfigManager();
+    public boolean timeout() {
+        if (allConfirmed() || !state.compareAndSet(State.CONFIRMING, State.CANCELLED)) {
+            return false;
+        }
+        queue.getMetrics().recordTimedOut();
 
         String timeoutMessage = configManager.getMessage("queue.group.timeout");
-        broadcastMessage(timeoutMessage);
-        cancel();
+        String cancelledMessage = configManager.getMessage("queue.group.cancelled");
+        fanout.send(members.values(), RegionFanout.Payload.of(timeoutMessage, cancelledMessage)
+                .withSound(CANCEL_SOUND));
+        return true;
     }
 
-    public void removePlayer(QueuePlayer queuePlayer) {
-        boolean removed = players.remove(queuePlayer);
-        if (removed) {
-            confirmations.remove(queuePlayer.getPlayer().getUniqueId());
+    public void removePlayer(UUID playerId) {
+        if (members.remove(playerId) != null && confirmed.remove(playerId)) {
+            confirmedCount.decrementAndGet();
         }
     }
 
     public boolean containsPlayer(UUID playerId) {
-        for (QueuePlayer queuePlayer : players) {
-            if (queuePlayer.getPlayer().getUniqueId().equals(playerId)) {
-                return true;
-            }
-        }
-        return false;
+        return members.containsKey(playerId);
+    }
+
+    public List<UUID> getPlayerIds() {
+        return new ArrayList<>(members.keySet());
+    }
+
+    public List<QueuePlayer> getPlayers() {
+        return new ArrayList<>(members.values());
+    }
+
+    public int getSize() {
+        return members.size();
+    }
+
+    public int getConfirmedCount() {
+        return confirmedCount.get();
     }
 
     public boolean isEmpty() {
-        return players.isEmpty();
+        return members.isEmpty();
     }
 
     public void broadcastMessage(String message) {
-        for (QueuePlayer queuePlayer : players) {
-            if (queuePlayer.isOnline()) {
-                queuePlayer.getPlayer().sendMessage(message);
-            }
-        }
+        fanout.send(members.values(), RegionFanout.Payload.of(message));
     }
 
     // Getters
     public String getId() { return id; }
     public GameQueue getQueue() { return queue; }
+    public State getState() { return state.get(); }
     public int getConfirmationTime() { return queue.getConfig().getConfirmationTime(); }
-}
\ No newline at end of file
+    public long getFormedAt() { return formedAt; }
+    public long getLastConfirmedAt() { return lastConfirmedAt; }
+
+    private static Sound sound(String key, float volume) {
+        return Sound.sound(Key.key(key), Sound.Source.PLAYER, volume, 1.0f);
+    }
+
+    public enum State {
+        FORMING,
+        CONFIRMING,
+        COUNTDOWN,
+        DISPATCHING,
+        DONE,
+        CANCELLED;
+
+        public boolean isTerminal() {
+            return this == DONE || this == CANCELLED;
+        }
+    }
+}
@@ -1,164 +1,1046 @@
 package cn.ymjacky.queue;
 
-import cn.ymjacky.SPToolsPlugin;
 import cn.ymjacky.manager.ConfigurationManager;
 import cn.ymjacky.config.QueueConfig;
+import cn.ymjacky.federation.FederationManager;
+import cn.ymjacky.federation.FederationMessage;
+import cn.ymjacky.federation.LoopbackTransport;
+import cn.ymjacky.journal.JournalEntry;
+import cn.ymjacky.journal.QueueJournal;
+import cn.ymjacky.metrics.LatencyHistogram;
+import cn.ymjacky.metrics.PrometheusExporter;
+import cn.ymjacky.task.ArenaPool;
+import cn.ymjacky.task.MpscMailbox;
+import cn.ymjacky.task.QueueHud;
 import cn.ymjacky.task.QueueScheduler;
+import cn.ymjacky.task.RegionFanout;
+import cn.ymjacky.utils.GroupValueManagerUtil;
+import io.papermc.paper.threadedregions.scheduler.ScheduledTask;
+import org.bukkit.Bukkit;
 import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.logging.Level;
 
 public class QueueManager {
 
-    private final SPToolsPlugin plugin;
+    private final Plugin plugin;
     private final ConfigurationManager configManager;
-    private final Map<String, GameQueue> activeQueues;
-    private final Map<UUID, QueuePlayer> queuePlayers;
-    private final Map<String, QueueGroup> activeGroups;
+    private final Map<String, QueueShard> shards;
+    private final Map<String, List<QueueShard>> families;
+    private final Map<UUID, QueueTicket> tickets;
     private final QueueScheduler scheduler;
+    private final RegionFanout fanout;
+    private final Matchmaker matchmaker;
+    private final QueueHud hud;
+    private final boolean actorMode;
+    private final boolean batchMatchmaking;
+    private final boolean priorityLanes;
+    private final int maxQueuesPerPlayer;
+    private final long instanceIdleMillis;
+    private final int actorBatchSize;
+    private final MpscMailbox<Runnable> mailbox;
+    private final ScheduledTask mailboxTask;
+    private final QueueJournal journal;
+    private final ScheduledTask compactionTask;
+    private final Map<UUID, List<JournalEntry>> pendingRestores;
+    private final AtomicLong reportedDroppedRecords;
+    private final FederationManager federation;
+    private final PrometheusExporter metricsExporter;
+    private volatile boolean verifyGroupIndex;
 
-    public QueueManager(SPToolsPlugin plugin) {
+    public QueueManager(Plugin plugin, ConfigurationManager configManager) {
         this.plugin = plugin;
-        this.configManager = plugin.getConfigManager();
-        this.activeQueues = new ConcurrentHashMap<>();
-        this.queuePlayers = new ConcurrentHashMap<>();
-        this.activeGroups = new ConcurrentHashMap<>();
+        this.configManager = configManager;
+        this.shards = new ConcurrentHashMap<>();
+        this.families = new ConcurrentHashMap<>();
+        this.tickets = new ConcurrentHashMap<>();
+        this.verifyGroupIndex = plugin.getConfig().getBoolean("debug.verify-group-index", false);
+        this.fanout = new RegionFanout(plugin);
         this.scheduler = new QueueScheduler(plugin, this);
+        this.matchmaker = new Matchmaker(this);
+        this.hud = plugin.getConfig().getBoolean("hud.enabled", true)
+                ? new QueueHud(plugin, configManager, this, scheduler.getWheel(),
+                        plugin.getConfig().getLong("hud.interval-ticks", 20L),
+                        plugin.getConfig().getString("hud.mode", "actionbar").equalsIgnoreCase("bossbar"))
+                : null;
+        this.batchMatchmaking = plugin.getConfig().getBoolean("matchmaking.batch", false);
+        this.priorityLanes = plugin.getConfig().getBoolean("priority.enabled", false);
+        this.maxQueuesPerPlayer = Math.max(1, plugin.getConfig().getInt("multi-queue.max-queues", 1));
+        this.instanceIdleMillis = Math.max(0, plugin.getConfig().getInt("overflow.idle-seconds", 60)) * 1000L;
+        this.actorMode = plugin.getConfig().getString("execution.mode", "direct").equalsIgnoreCase("actor");
+        this.actorBatchSize = Math.max(1, plugin.getConfig().getInt("execution.batch-size", 256));
+        this.mailbox = new MpscMailbox<>();
+        Runnable drain = QueueScheduler.timed("drain-mailbox", this::drainMailbox);
+        this.mailboxTask = actorMode
+                ? Bukkit.getGlobalRegionScheduler().runAtFixedRate(plugin, _ -> drain.run(), 1L, 1L)
+                : null;
         initializeQueues();
+        this.pendingRestores = new ConcurrentHashMap<>();
+        this.reportedDroppedRecords = new AtomicLong();
+        this.journal = plugin.getConfig().getBoolean("journal.enabled", true) ? openJournal() : null;
+        if (journal != null) {
+            long snapshotInterval = Math.max(1, plugin.getConfig().getInt("journal.snapshot-interval-seconds", 60));
+            this.compactionTask = Bukkit.getAsyncScheduler().runAtFixedRate(plugin,
+                    _ -> compactJournal(), snapshotInterval, snapshotInterval, TimeUnit.SECONDS);
+            // A segment that fills up rolls over on the tick thread; the snapshot it owes is written off-thread.
+            journal.setRolloverListener(() -> Bukkit.getAsyncScheduler().runNow(plugin, _ -> compactJournal()));
+            scheduleRestores();
+        } else {
+            this.compactionTask = null;
+        }
+        this.federation = plugin.getConfig().getBoolean("federation.enabled", false) ? startFederation() : null;
+        this.metricsExporter = plugin.getConfig().getBoolean("metrics.prometheus.enabled", true)
+                ? new PrometheusExporter(plugin, this, plugin.getDataFolder().toPath()
+                        .resolve(plugin.getConfig().getString("metrics.prometheus.file", "metrics/sptools.prom")))
+                : null;
+        if (metricsExporter != null) {
+            metricsExporter.start(plugin.getConfig().getLong("metrics.prometheus.interval-seconds", 15L));
+        }
+        long checkInterval = Math.max(1, plugin.getConfig().getInt("queue_check_interval", 5)) * 20L;
+        scheduler.getWheel().scheduleAtFixedRate(checkInterval, checkInterval,
+                QueueScheduler.timed("matchmaker", () -> matchmaker.runPass(true)));
+        scheduler.getWheel().scheduleAtFixedRate(checkInterval, checkInterval,
+                QueueScheduler.timed("reclaim-instances", this::reclaimIdleInstances));
+        if (batchMatchmaking) {
+            long batchInterval = Math.max(1, plugin.getConfig().getInt("matchmaking.batch-interval", 20));
+            scheduler.getWheel().scheduleAtFixedRate(batchInterval, batchInterval,
+                    QueueScheduler.timed("batch-matchmaker", () -> matchmaker.runPass(false)));
+        }
     }
 
     private void initializeQueues() {
         for (QueueConfig config : configManager.getAllQueueConfigs().values()) {
-            activeQueues.put(config.getName().toLowerCase(), new GameQueue(config));
+            QueueShard shard = new QueueShard(new GameQueue(config));
+            shards.put(shard.getQueue().getInstanceKey(), shard);
+            families.put(config.getName().toLowerCase(), new CopyOnWriteArrayList<>(List.of(shard)));
+        }
+        plugin.getLogger().info("已初始化 " + shards.size() + " 个队列");
+    }
+
+    private FederationManager startFederation() {
+        FederationManager manager = new FederationManager(plugin, this,
+                plugin.getConfig().getString("federation.node-id", "lobby-1"),
+                plugin.getConfig().getInt("federation.batch-size", 64),
+                plugin.getConfig().getLong("federation.heartbeat-ticks", 20L),
+                Math.max(1, plugin.getConfig().getInt("federation.node-timeout-seconds", 5)) * 1000L);
+        fanout.setRemoteSink(manager::deliver);
+        String transport = plugin.getConfig().getString("federation.transport", "loopback");
+        if (transport.equalsIgnoreCase("loopback")) {
+            manager.start(new LoopbackTransport());
+        } else {
+            plugin.getLogger().info("队列联邦等待传输实现注册: " + transport);
+        }
+        return manager;
+    }
+
+    private QueueJournal openJournal() {
+        int segmentBytes = Math.max(1, plugin.getConfig().getInt("journal.segment-mb", 16)) << 20;
+        try {
+            QueueJournal opened = QueueJournal.open(plugin.getDataFolder().toPath().resolve("journal"), segmentBytes);
+            pendingRestores.putAll(opened.getState().restorable());
+            plugin.getLogger().info("已从队列日志恢复 " + pendingRestores.size() + " 名玩家的排队记录（"
+                    + opened.getRecoveredRecords() + " 条记录，用时 "
+                    + TimeUnit.NANOSECONDS.toMillis(opened.getRecoveryNanos()) + " ms）");
+            return opened;
+        } catch (IOException | RuntimeException e) {
+            plugin.getLogger().log(Level.SEVERE, "无法打开队列日志，本次运行将不记录排队状态", e);
+            return null;
+        }
+    }
+
+    // Online players get their places back now; the rest have restore-grace-seconds to reconnect.
+    // Restoring in join order appends every entry at the tail, instead of rebuilding the line for each one
+    // that lands in the middle.
+    private void scheduleRestores() {
+        if (pendingRestores.isEmpty()) {
+            return;
+        }
+        List<Player> online = new ArrayList<>();
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            if (pendingRestores.containsKey(player.getUniqueId())) {
+                online.add(player);
+            }
+        }
+        online.sort(Comparator.comparingLong(player -> firstJoinedAt(player.getUniqueId())));
+        for (Player player : online) {
+            restorePlayer(player);
+        }
+        long graceTicks = Math.max(0, plugin.getConfig().getInt("journal.restore-grace-seconds", 300)) * 20L;
+        scheduler.getWheel().schedule(graceTicks, () -> submit(this::expireRestores));
+    }
+
+    private long firstJoinedAt(UUID playerId) {
+        long joinedAt = Long.MAX_VALUE;
+        for (JournalEntry entry : pendingRestores.getOrDefault(playerId, List.of())) {
+            joinedAt = Math.min(joinedAt, entry.joinedAt());
+        }
+        return joinedAt;
+    }
+
+    // Records appended while both segments are full live only in memory until the snapshot lands, so a crash in
+    // that window loses them; warn so the segment size can be raised.
+    private void compactJournal() {
+        record(QueueJournal::compact);
+        long dropped = journal.getDroppedRecords();
+        long previous = reportedDroppedRecords.getAndSet(dropped);
+        if (dropped > previous) {
+            plugin.getLogger().warning("队列日志段已写满，有 " + (dropped - previous)
+                    + " 条记录在快照写完前未写入磁盘，期间崩溃会丢失这些变更；请调大 journal.segment-mb");
+        }
+    }
+
+    private void expireRestores() {
+        for (UUID playerId : List.copyOf(pendingRestores.keySet())) {
+            if (pendingRestores.remove(playerId) != null) {
+                record(j -> j.leave(playerId));
+            }
+        }
+    }
+
+    private void record(Consumer<QueueJournal> mutation) {
+        if (journal == null) {
+            return;
+        }
+        try {
+            mutation.accept(journal);
+        } catch (RuntimeException e) {
+            plugin.getLogger().log(Level.WARNING, "写入队列日志时出错", e);
+        }
+    }
+
+    private void recordJoin(String queueName, QueuePlayer queuePlayer) {
+        record(j -> j.join(queueName.toLowerCase(), queuePlayer.getPlayerId(), queuePlayer.getPartyId(),
+                queuePlayer.getTier(), queuePlayer.canBypass(), queuePlayer.getJoinedAt()));
+    }
+
+    public void restorePlayer(Player player) {
+        if (pendingRestores.containsKey(player.getUniqueId())) {
+            submit(() -> handleRestore(player));
         }
-        plugin.getLogger().info("已初始化 " + activeQueues.size() + " 个队列");
     }
 
     public void joinQueue(Player player, String queueName) {
-        if (queuePlayers.containsKey(player.getUniqueId())) {
-            String message = configManager.getMessage("queue.join.already-in");
+        submit(() -> handleJoin(player, queueName));
+    }
+
+    public void joinParty(List<Player> party, String queueName) {
+        List<Player> members = List.copyOf(party);
+        submit(() -> handleJoinParty(members, queueName));
+    }
+
+    public void leaveQueue(Player player) {
+        submit(() -> handleLeave(player));
+    }
+
+    public void confirmParticipation(Player player) {
+        submit(() -> handleConfirm(player));
+    }
+
+    private void submit(Runnable command) {
+        if (actorMode) {
+            mailbox.offer(command);
+        } else {
+            command.run();
+        }
+    }
+
+    private void drainMailbox() {
+        mailbox.drain(command -> {
+            try {
+                command.run();
+            } catch (RuntimeException e) {
+                plugin.getLogger().log(Level.SEVERE, "处理队列命令时出错", e);
+            }
+        }, actorBatchSize);
+    }
+
+    private void reply(Player player, String message) {
+        if (actorMode) {
+            player.getScheduler().run(plugin, _ -> player.sendMessage(message), null);
+        } else {
             player.sendMessage(message);
+        }
+    }
+
+    private void handleJoin(Player player, String queueName) {
+        UUID playerId = player.getUniqueId();
+        List<QueueShard> family = families.get(queueName.toLowerCase());
+        if (family == null) {
+            QueueTicket ticket = tickets.get(playerId);
+            String message = ticket != null && !canJoin(ticket, null)
+                    ? configManager.getMessage("queue.join.already-in")
+                    : configManager.getMessage("queue.join.not-found", "queue", queueName);
+            reply(player, message);
             return;
         }
 
-        GameQueue queue = activeQueues.get(queueName.toLowerCase());
-        if (queue == null) {
-            String message = configManager.getMessage("queue.join.not-found", "queue", queueName);
-            player.sendMessage(message);
+        if (routeJoin(List.of(player), null, queueName)) {
             return;
         }
 
-        if (queue.isFull()) {
+        QueueTicket ticket = tickets.computeIfAbsent(playerId, QueueTicket::new);
+        if (!canJoin(ticket, family) || isForwarded(playerId)) {
+            String message = configManager.getMessage("queue.join.already-in");
+            reply(player, message);
+            return;
+        }
+        QueuePlayer queuePlayer = newQueuePlayer(player, ticket, null);
+        QueueShard shard = place(family, List.of(ticket), target -> target.join(queuePlayer));
+        if (shard == null) {
+            releaseTicket(ticket);
             String message = configManager.getMessage("queue.join.full");
-            player.sendMessage(message);
+            reply(player, message);
             return;
         }
-        QueuePlayer queuePlayer = new QueuePlayer(player);
-        boolean success = queue.addPlayer(queuePlayer);
-        if (success) {
-            queuePlayers.put(player.getUniqueId(), queuePlayer);
-            String message = configManager.getMessage("queue.join.success",
-                    "queue", queue.getName(),
-                    "current", queue.getPlayerCount(),
-                    "max", queue.getMaxPlayers());
-            player.sendMessage(message);
-            if (queue.isFull()) {
-                processFullQueue(queue);
+        if (ticket.isClaimed()) {
+            // Won by another queue between the check and the insert; the sweep may have missed this shard.
+            shard.removeWaiting(playerId);
+            releaseReservation(ticket, shard);
+            String message = configManager.getMessage("queue.join.already-in");
+            reply(player, message);
+            return;
+        }
+
+        recordJoin(queueName, queuePlayer);
+        GameQueue queue = shard.getQueue();
+        String message = configManager.getMessage("queue.join.success",
+                "queue", queue.getName(),
+                "current", queue.getPlayerCount(),
+                "max", queue.getMaxPlayers(),
+                "wait", QueueHud.formatWait(queue.estimateWait(queue.getPosition(playerId))));
+        reply(player, message);
+        if (!batchMatchmaking && queue.hasFullGroup()) {
+            formGroup(shard, queue.getMaxPlayers());
+        }
+    }
+
+    private void handleJoinParty(List<Player> party, String queueName) {
+        Player leader = party.getFirst();
+        List<QueueShard> family = families.get(queueName.toLowerCase());
+        if (family == null) {
+            reply(leader, configManager.getMessage("queue.join.not-found", "queue", queueName));
+            return;
+        }
+        QueueConfig config = family.getFirst().getQueue().getConfig();
+        if (party.size() > config.getMaxPlayers()) {
+            reply(leader, configManager.getMessage("queue.party.too-large",
+                    "size", party.size(), "max", config.getMaxPlayers()));
+            return;
+        }
+
+        String partyId = UUID.randomUUID().toString().substring(0, 8);
+        if (routeJoin(party, partyId, queueName)) {
+            return;
+        }
+
+        List<QueueTicket> reserved = new ArrayList<>(party.size());
+        for (Player member : party) {
+            QueueTicket ticket = tickets.computeIfAbsent(member.getUniqueId(), QueueTicket::new);
+            if (!canJoin(ticket, family) || isForwarded(member.getUniqueId())) {
+                reserved.forEach(this::releaseTicket);
+                releaseTicket(ticket);
+                reply(leader, configManager.getMessage("queue.party.member-busy", "player", member.getName()));
+                return;
             }
+            reserved.add(ticket);
+        }
 
+        List<QueuePlayer> queuePlayers = new ArrayList<>(party.size());
+        for (int i = 0; i < party.size(); i++) {
+            queuePlayers.add(newQueuePlayer(party.get(i), reserved.get(i), partyId));
+        }
+        QueueShard shard = place(family, reserved, target -> target.joinParty(queuePlayers));
+        if (shard == null) {
+            reserved.forEach(this::releaseTicket);
+            reply(leader, configManager.getMessage("queue.join.full"));
+            return;
         }
 
+        for (QueuePlayer queuePlayer : queuePlayers) {
+            recordJoin(queueName, queuePlayer);
+        }
+        GameQueue queue = shard.getQueue();
+        String message = configManager.getMessage("queue.party.success",
+                "queue", queue.getName(),
+                "size", party.size(),
+                "current", queue.getPlayerCount(),
+                "max", queue.getMaxPlayers(),
+                "wait", QueueHud.formatWait(queue.estimateWait(queue.getPosition(leader.getUniqueId()))));
+        for (Player member : party) {
+            reply(member, message);
+        }
+        if (!batchMatchmaking && queue.hasFullGroup()) {
+            formGroup(shard, queue.getMaxPlayers());
+        }
     }
 
-    public void leaveQueue(Player player) {
-        QueuePlayer queuePlayer = queuePlayers.remove(player.getUniqueId());
-        if (queuePlayer == null) {
-            String message = configManager.getMessage("queue.leave.not-in");
-            player.sendMessage(message);
+    // True when the join was handled by the federation: the queue is owned by another node or ownership is not settled yet.
+    private boolean routeJoin(List<Player> players, String partyId, String queueName) {
+        if (federation == null) {
+            return false;
+        }
+        Player leader = players.getFirst();
+        String owner = federation.ownerOf(queueName);
+        if (owner == null) {
+            reply(leader, configManager.getMessage("queue.federation.syncing"));
+            return true;
+        }
+        if (owner.equals(federation.getNodeId())) {
+            return false;
+        }
+        for (Player member : players) {
+            if (tickets.containsKey(member.getUniqueId()) || isForwarded(member.getUniqueId())) {
+                reply(leader, players.size() == 1
+                        ? configManager.getMessage("queue.join.already-in")
+                        : configManager.getMessage("queue.party.member-busy", "player", member.getName()));
+                return true;
+            }
+        }
+        List<FederationMessage.Member> members = new ArrayList<>(players.size());
+        for (Player member : players) {
+            members.add(new FederationMessage.Member(member.getUniqueId(),
+                    priorityLanes ? GroupValueManagerUtil.getPlayerGroup(member) : null,
+                    member.hasPermission("sptools.bypass")));
+        }
+        federation.forwardJoin(queueName, partyId, members, System.currentTimeMillis());
+        return true;
+    }
+
+    private boolean isForwarded(UUID playerId) {
+        return federation != null && federation.isForwarded(playerId);
+    }
+
+    public void federatedJoin(FederationMessage.Join join) {
+        submit(() -> handleFederatedJoin(join));
+    }
+
+    public void federatedLeave(UUID playerId) {
+        submit(() -> removeEverywhere(playerId));
+    }
+
+    public void federatedConfirm(String origin, UUID playerId) {
+        submit(() -> confirm(playerId, message -> federation.reply(origin, playerId, message)));
+    }
+
+    public void rehome(String queueName) {
+        submit(() -> handleRehome(queueName));
+    }
+
+    public void dropNode(String node) {
+        submit(() -> handleDropNode(node));
+    }
+
+    // Forwarded players are inserted by their original join time, so re-forwarding after an owner change keeps their place.
+    private void handleFederatedJoin(FederationMessage.Join join) {
+        boolean local = join.origin().equals(federation.getNodeId());
+        List<QueueShard> family = families.get(join.queue());
+        if (family == null) {
+            federation.reject(join, configManager.getMessage("queue.join.not-found", "queue", join.queue()));
             return;
         }
-        queuePlayer.getQueue().removePlayer(queuePlayer);
-        QueueGroup group = findPlayerGroup(player);
-        if (group != null) {
-            group.removePlayer(queuePlayer);
-            if (group.isEmpty()) {
-                activeGroups.remove(group.getId());
-                scheduler.cancelGroupTasks(group.getId());
+        List<QueueTicket> reserved = new ArrayList<>(join.members().size());
+        List<QueuePlayer> unit = new ArrayList<>(join.members().size());
+        for (FederationMessage.Member member : join.members()) {
+            QueueTicket ticket = tickets.computeIfAbsent(member.playerId(), QueueTicket::new);
+            if (join.rehomed() && isQueuedIn(ticket, family)) {
+                // A repeated re-forward of players already placed here.
+                reserved.forEach(this::releaseTicket);
+                return;
+            }
+            Player player = local ? Bukkit.getPlayer(member.playerId()) : null;
+            if (!canJoin(ticket, family) || local && player == null) {
+                reserved.forEach(this::releaseTicket);
+                releaseTicket(ticket);
+                federation.reject(join, configManager.getMessage("queue.join.already-in"));
+                return;
+            }
+            reserved.add(ticket);
+            unit.add(local
+                    ? new QueuePlayer(player, ticket, join.partyId(), member.tier(), member.bypass(), join.joinedAt())
+                    : new QueuePlayer(member.playerId(), join.origin(), ticket, join.partyId(), member.tier(),
+                            member.bypass(), join.joinedAt()));
+        }
+        QueueShard shard = place(family, reserved, target -> target.restore(unit));
+        if (shard == null) {
+            reserved.forEach(this::releaseTicket);
+            federation.reject(join, configManager.getMessage("queue.join.full"));
+            return;
+        }
+        if (local) {
+            for (QueuePlayer queuePlayer : unit) {
+                federation.accepted(queuePlayer.getPlayerId());
+                recordJoin(join.queue(), queuePlayer);
+            }
+        }
+
+        GameQueue queue = shard.getQueue();
+        if (!join.rehomed()) {
+            String message = unit.size() == 1
+                    ? configManager.getMessage("queue.join.success",
+                            "queue", queue.getName(),
+                            "current", queue.getPlayerCount(),
+                            "max", queue.getMaxPlayers(),
+                            "wait", QueueHud.formatWait(queue.estimateWait(queue.getPosition(unit.getFirst().getPlayerId())))
+                    )
+                    : configManager.getMessage("queue.party.success",
+                            "queue", queue.getName(),
+                            "size", unit.size(),
+                            "current", queue.getPlayerCount(),
+                            "max", queue.getMaxPlayers(),
+                            "wait", QueueHud.formatWait(queue.estimateWait(queue.getPosition(unit.getFirst().getPlayerId()))));
+            fanout.send(unit, RegionFanout.Payload.of(message));
+        }
+        if (!batchMatchmaking && queue.hasFullGroup()) {
+            formGroup(shard, queue.getMaxPlayers());
+        }
+    }
+
+    // This node lost the queue: its own waiting players follow the queue to the new owner, remote ones are re-forwarded by their nodes.
+    private void handleRehome(String queueName) {
+        List<QueueShard> family = families.get(queueName);
+        if (family == null) {
+            return;
+        }
+        Map<String, List<QueuePlayer>> units = new LinkedHashMap<>();
+        for (QueueShard shard : family) {
+            for (QueuePlayer queuePlayer : List.copyOf(shard.getWaiting())) {
+                UUID playerId = queuePlayer.getPlayerId();
+                if (shard.removeWaiting(playerId) == null) {
+                    continue;
+                }
+                releaseReservation(queuePlayer.getTicket(), shard);
+                if (queuePlayer.isRemote()) {
+                    continue;
+                }
+                record(j -> j.remove(queueName, playerId));
+                String unitKey = queuePlayer.getPartyId() != null ? queuePlayer.getPartyId() : playerId.toString();
+                units.computeIfAbsent(unitKey, _ -> new ArrayList<>()).add(queuePlayer);
+            }
+        }
+        for (List<QueuePlayer> unit : units.values()) {
+            List<FederationMessage.Member> members = new ArrayList<>(unit.size());
+            for (QueuePlayer queuePlayer : unit) {
+                members.add(new FederationMessage.Member(queuePlayer.getPlayerId(), queuePlayer.getTier(),
+                        queuePlayer.canBypass()));
+            }
+            QueuePlayer leader = unit.getFirst();
+            federation.rehome(queueName, leader.getPartyId(), members, leader.getJoinedAt());
+        }
+    }
+
+    private void handleDropNode(String node) {
+        Set<UUID> dropped = new HashSet<>();
+        for (QueueShard shard : shards.values()) {
+            for (QueuePlayer queuePlayer : shard.getWaiting()) {
+                if (node.equals(queuePlayer.getNode())) {
+                    dropped.add(queuePlayer.getPlayerId());
+                }
+            }
+            for (QueueGroup group : shard.getGroups()) {
+                for (QueuePlayer queuePlayer : group.getPlayers()) {
+                    if (node.equals(queuePlayer.getNode())) {
+                        dropped.add(queuePlayer.getPlayerId());
+                    }
+                }
+            }
+        }
+        dropped.forEach(this::removeEverywhere);
+    }
+
+    private static boolean isQueuedIn(QueueTicket ticket, List<QueueShard> family) {
+        for (QueueShard shard : family) {
+            if (ticket.getShards().contains(shard)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Tries each open instance in order and opens an overflow instance once all of them are full.
+    private QueueShard place(List<QueueShard> family, List<QueueTicket> reserving, Predicate<QueueShard> join) {
+        for (QueueShard shard : family) {
+            if (tryPlace(shard, reserving, join)) {
+                return shard;
+            }
+        }
+        synchronized (family) {
+            QueueConfig config = family.getFirst().getQueue().getConfig();
+            if (family.size() >= config.getMaxInstances()) {
+                return null;
+            }
+            QueueShard shard = new QueueShard(new GameQueue(config, nextInstance(family),
+                    family.getFirst().getQueue().getMetrics()));
+            family.add(shard);
+            shards.put(shard.getQueue().getInstanceKey(), shard);
+            plugin.getLogger().info("队列 " + config.getName() + " 已满，开启溢出实例 #" + shard.getQueue().getInstance());
+            return tryPlace(shard, reserving, join) ? shard : null;
+        }
+    }
+
+    private boolean tryPlace(QueueShard shard, List<QueueTicket> reserving, Predicate<QueueShard> join) {
+        for (QueueTicket ticket : reserving) {
+            ticket.getShards().add(shard);
+        }
+        if (join.test(shard)) {
+            return true;
+        }
+        for (QueueTicket ticket : reserving) {
+            ticket.getShards().remove(shard);
+        }
+        return false;
+    }
+
+    private static int nextInstance(List<QueueShard> family) {
+        int instance = 1;
+        boolean taken = true;
+        while (taken) {
+            instance++;
+            taken = false;
+            for (QueueShard shard : family) {
+                if (shard.getQueue().getInstance() == instance) {
+                    taken = true;
+                    break;
+                }
+            }
+        }
+        return instance;
+    }
+
+    private void reclaimIdleInstances() {
+        long idleSince = System.currentTimeMillis() - instanceIdleMillis;
+        for (List<QueueShard> family : families.values()) {
+            synchronized (family) {
+                for (QueueShard shard : family) {
+                    if (shard.getQueue().getInstance() > 1 && shard.retireIfIdle(idleSince)) {
+                        family.remove(shard);
+                        shards.remove(shard.getQueue().getInstanceKey(), shard);
+                        plugin.getLogger().info("已回收空闲的溢出实例: " + shard.getQueue().getInstanceKey());
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean canJoin(QueueTicket ticket, List<QueueShard> family) {
+        Set<QueueShard> joined = ticket.getShards();
+        if (ticket.isClaimed() || joined.size() >= maxQueuesPerPlayer) {
+            return false;
+        }
+        if (family != null) {
+            for (QueueShard shard : family) {
+                if (joined.contains(shard)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private QueuePlayer newQueuePlayer(Player player, QueueTicket ticket, String partyId) {
+        String tier = priorityLanes ? GroupValueManagerUtil.getPlayerGroup(player) : null;
+        return new QueuePlayer(player, ticket, partyId, tier, player.hasPermission("sptools.bypass"));
+    }
+
+    private void releaseReservation(QueueTicket ticket, QueueShard shard) {
+        ticket.getShards().remove(shard);
+        releaseTicket(ticket);
+    }
+
+    private void releaseTicket(QueueTicket ticket) {
+        if (ticket.getShards().isEmpty() && !ticket.isClaimed()) {
+            tickets.remove(ticket.getPlayerId(), ticket);
+        }
+    }
+
+    private void handleRestore(Player player) {
+        UUID playerId = player.getUniqueId();
+        List<JournalEntry> entries = pendingRestores.remove(playerId);
+        if (entries == null) {
+            return;
+        }
+        if (federation != null && entries.stream().anyMatch(entry -> federation.ownerOf(entry.queue()) == null)) {
+            // Ownership is not settled yet right after start-up; try again once heartbeats have come in.
+            pendingRestores.put(playerId, entries);
+            scheduler.getWheel().schedule(20L, () -> restorePlayer(player));
+            return;
+        }
+        for (JournalEntry entry : entries) {
+            String owner = federation == null ? null : federation.ownerOf(entry.queue());
+            if (owner != null && !owner.equals(federation.getNodeId())) {
+                record(j -> j.remove(entry.queue(), playerId));
+                federation.rehome(entry.queue(), entry.partyId(),
+                        List.of(new FederationMessage.Member(playerId, entry.tier(), entry.bypass())), entry.joinedAt());
+                continue;
+            }
+            List<QueueShard> family = families.get(entry.queue());
+            QueueTicket ticket = tickets.computeIfAbsent(playerId, QueueTicket::new);
+            if (family == null || !canJoin(ticket, family)) {
+                releaseTicket(ticket);
+                record(j -> j.remove(entry.queue(), playerId));
+                continue;
             }
+            QueuePlayer queuePlayer = new QueuePlayer(player, ticket, entry.partyId(), entry.tier(),
+                    entry.bypass(), entry.joinedAt());
+            QueueShard shard = place(family, List.of(ticket), target -> target.restore(List.of(queuePlayer)));
+            if (shard == null) {
+                releaseTicket(ticket);
+                record(j -> j.remove(entry.queue(), playerId));
+                continue;
+            }
+            recordJoin(entry.queue(), queuePlayer);
+            GameQueue queue = shard.getQueue();
+            reply(player, configManager.getMessage("queue.restore.success",
+                    "queue", queue.getName(),
+                    "position", queue.getPosition(playerId),
+                    "wait", QueueHud.formatWait(queue.estimateWait(queue.getPosition(playerId)))));
+            if (!batchMatchmaking && queue.hasFullGroup()) {
+                formGroup(shard, queue.getMaxPlayers());
+            }
+        }
+    }
+
+    private void handleLeave(Player player) {
+        UUID playerId = player.getUniqueId();
+        boolean left = federation != null && federation.forwardLeave(playerId);
+        if (removeEverywhere(playerId)) {
+            left = true;
+        }
+
+        if (!left) {
+            String message = configManager.getMessage("queue.leave.not-in");
+            reply(player, message);
+            return;
         }
 
         String message = configManager.getMessage("queue.leave.success");
-        player.sendMessage(message);
+        reply(player, message);
     }
 
-    public void confirmParticipation(Player player) {
-        QueueGroup group = findPlayerGroup(player);
-        if (group == null) {
-            player.sendMessage("§c您没有待确认的队列");
+    private boolean removeEverywhere(UUID playerId) {
+        QueueTicket ticket = tickets.remove(playerId);
+        boolean left = false;
+        if (ticket != null) {
+            for (QueueShard shard : ticket.getShards()) {
+                if (shard.removeWaiting(playerId) != null) {
+                    left = true;
+                }
+                QueueGroup group = shard.removeFromGroup(playerId);
+                if (group != null) {
+                    left = true;
+                    if (group.isEmpty()) {
+                        group.cancel();
+                        removeGroup(group);
+                        scheduler.cancelGroupTasks(group.getId());
+                    } else if (group.beginCountdown()) {
+                        scheduler.startCountdown(group);
+                    }
+                }
+            }
+            ticket.getShards().clear();
+            checkGroupIndex();
+        }
+        if (left || pendingRestores.remove(playerId) != null) {
+            record(j -> j.leave(playerId));
+        }
+        return left;
+    }
+
+    private void handleConfirm(Player player) {
+        UUID playerId = player.getUniqueId();
+        if (getPlayerGroup(playerId) == null && federation != null && federation.forwardConfirm(playerId)) {
             return;
         }
+        confirm(playerId, message -> reply(player, message));
+    }
 
-        QueuePlayer queuePlayer = queuePlayers.get(player.getUniqueId());
-        if (queuePlayer == null) {
-            player.sendMessage("§c您不在任何队列中");
+    private void confirm(UUID playerId, Consumer<String> replyTo) {
+        QueueGroup group = getPlayerGroup(playerId);
+        if (group == null) {
+            replyTo.accept("§c您没有待确认的队列");
             return;
         }
 
-        boolean confirmed = group.confirmPlayer(queuePlayer);
+        boolean confirmed = group.confirmPlayer(playerId);
         if (confirmed) {
+            record(j -> j.confirm(group.getId(), playerId));
             String message = configManager.getMessage("queue.group.confirm-success");
-            player.sendMessage(message);
-            if (group.allConfirmed()) {
-                String allConfirmedMsg = configManager.getMessage("queue.group.confirm-all");
-                group.broadcastMessage(allConfirmedMsg);
+            replyTo.accept(message);
+            if (group.beginCountdown()) {
                 scheduler.startCountdown(group);
             }
         }
 
     }
 
-    private void processFullQueue(GameQueue queue) {
-        List<QueuePlayer> players = queue.getPlayers();
-        QueueGroup group = new QueueGroup(queue, players);
-        queue.clear();
-        for (QueuePlayer player : players) {
-            queuePlayers.remove(player.getPlayer().getUniqueId());
+    public QueueGroup formGroup(QueueShard shard, int size) {
+        QueueGroup group = formGroupUnscheduled(shard, size, size);
+        if (group != null) {
+            scheduler.scheduleGroup(group);
         }
-        group.notifyReady();
-        scheduler.scheduleGroup(group);
-        activeGroups.put(group.getId(), group);
+        return group;
+    }
+
+    QueueGroup formGroupUnscheduled(QueueShard shard, int maxSize, int minSize) {
+        QueueGroup group = shard.formGroup(maxSize, minSize, fanout, configManager);
+        if (group != null) {
+            recordGroupFormed(group);
+            sweepClaimed(shard, group);
+            checkGroupIndex();
+        }
+        return group;
+    }
+
+    List<QueueGroup> formFullGroups(QueueShard shard) {
+        List<QueueGroup> groups = shard.formFullGroups(fanout, configManager);
+        for (QueueGroup group : groups) {
+            recordGroupFormed(group);
+            sweepClaimed(shard, group);
+        }
+        if (!groups.isEmpty()) {
+            checkGroupIndex();
+        }
+        return groups;
+    }
+
+    private void recordGroupFormed(QueueGroup group) {
+        record(j -> j.groupFormed(group.getQueue().getName().toLowerCase(), group.getId(), group.getPlayerIds()));
     }
 
-    private QueueGroup findPlayerGroup(Player player) {
-        for (QueueGroup group : activeGroups.values()) {
-            if (group.containsPlayer(player.getUniqueId())) {
-                return group;
+    // Runs after the forming shard's lock is released so two shards never hold each other's locks.
+    private void sweepClaimed(QueueShard owner, QueueGroup group) {
+        for (QueuePlayer queuePlayer : group.getPlayers()) {
+            QueueTicket ticket = queuePlayer.getTicket();
+            UUID playerId = ticket.getPlayerId();
+            for (QueueShard shard : ticket.getShards()) {
+                if (shard != owner) {
+                    shard.removeWaiting(playerId);
+                    ticket.getShards().remove(shard);
+                }
             }
         }
-        return null;
+    }
+
+    void scheduleGroups(List<QueueGroup> groups) {
+        scheduler.scheduleGroups(groups);
+    }
+
+    public QueueGroup getPlayerGroup(UUID playerId) {
+        QueueTicket ticket = tickets.get(playerId);
+        GameQueue claimedBy = ticket == null ? null : ticket.getClaimedBy();
+        if (claimedBy == null) {
+            return null;
+        }
+        QueueShard shard = shards.get(claimedBy.getInstanceKey());
+        return shard == null ? null : shard.getPlayerGroup(playerId);
+    }
+
+    public int getJoinedQueueCount(UUID playerId) {
+        QueueTicket ticket = tickets.get(playerId);
+        return ticket == null ? 0 : ticket.getShards().size();
+    }
+
+    public QueueShard getShard(String queueName) {
+        return shards.get(queueName.toLowerCase());
+    }
+
+    public List<QueueShard> getInstances(String queueName) {
+        List<QueueShard> family = families.get(queueName.toLowerCase());
+        return family == null ? List.of() : List.copyOf(family);
+    }
+
+    public Collection<QueueShard> getShards() {
+        return shards.values();
+    }
+
+    public int getMailboxSize() {
+        return mailbox.size();
+    }
+
+    public boolean isActorMode() {
+        return actorMode;
     }
 
     public void shutdown() {
+        if (mailboxTask != null) {
+            mailboxTask.cancel();
+        }
+        if (hud != null) {
+            hud.shutdown();
+        }
+        if (federation != null) {
+            federation.shutdown();
+        }
+        if (metricsExporter != null) {
+            metricsExporter.stop();
+        }
         scheduler.shutdown();
-        for (QueuePlayer queuePlayer : queuePlayers.values()) {
-            if (queuePlayer.isOnline()) {
-                queuePlayer.getPlayer().sendMessage("§cSPTools 插件正在关闭，您的队列已取消");
+        if (compactionTask != null) {
+            compactionTask.cancel();
+        }
+        // The journal keeps everyone still queued, so they get their places back after the restart.
+        record(j -> {
+            j.compact();
+            j.close();
+        });
+        String notice = journal != null
+                ? "§eSPTools 插件正在关闭，重新进入服务器后将恢复您的排队位置"
+                : "§cSPTools 插件正在关闭，您的队列已取消";
+        for (QueueShard shard : shards.values()) {
+            for (QueuePlayer queuePlayer : shard.getWaiting()) {
+                if (queuePlayer.isOnline()) {
+                    queuePlayer.getPlayer().sendMessage(notice);
+                }
             }
+            shard.clear();
         }
 
-        activeQueues.clear();
-        queuePlayers.clear();
-        activeGroups.clear();
+        shards.clear();
+        families.clear();
+        tickets.clear();
+    }
+
+    public void removeGroup(QueueGroup group) {
+        QueueShard shard = shards.get(group.getQueue().getInstanceKey());
+        if (shard == null) {
+            return;
+        }
+        List<UUID> released = shard.removeGroup(group);
+        if (!released.isEmpty()) {
+            record(j -> j.groupEnded(group.getId()));
+        }
+        if (federation != null) {
+            for (QueuePlayer queuePlayer : group.getPlayers()) {
+                if (released.contains(queuePlayer.getPlayerId())) {
+                    federation.released(queuePlayer);
+                }
+            }
+        }
+        for (UUID playerId : released) {
+            QueueTicket ticket = tickets.get(playerId);
+            if (ticket != null && ticket.getClaimedBy() == group.getQueue()) {
+                tickets.remove(playerId, ticket);
+                ticket.getShards().clear();
+            }
+        }
+        checkGroupIndex();
+    }
+
+    public void completeGroup(QueueGroup group) {
+        matchmaker.recordGameStart(group);
+        removeGroup(group);
+    }
+
+    public boolean isActiveGroup(QueueGroup group) {
+        QueueShard shard = shards.get(group.getQueue().getInstanceKey());
+        return shard != null && shard.isActive(group);
+    }
+
+    public ArenaPool getArenaPool(QueueConfig config) {
+        return scheduler.getArenaPool(config);
+    }
+
+    public void registerArenaHook(ArenaHook hook) {
+        scheduler.registerArenaHook(hook);
+    }
+
+    public void unregisterArenaHook(ArenaHook hook) {
+        scheduler.unregisterArenaHook(hook);
+    }
+
+    public LatencyHistogram getReadyToGame() {
+        return scheduler.getReadyToGame();
+    }
+
+    public Set<String> getQueueNames() {
+        return families.keySet();
+    }
+
+    public FederationManager getFederation() {
+        return federation;
+    }
+
+    public ConfigurationManager getConfigManager() {
+        return configManager;
+    }
+
+    public QueueJournal getJournal() {
+        return journal;
     }
 
-    public void removeGroup(String groupId) {
-        activeGroups.remove(groupId);
+    public int getPendingRestoreCount() {
+        return pendingRestores.size();
     }
 
-    public QueueGroup getGroup(String groupId) {
-        return activeGroups.get(groupId);
+    public Matchmaker getMatchmaker() {
+        return matchmaker;
+    }
+
+    public RegionFanout getFanout() {
+        return fanout;
+    }
+
+    public void setVerifyGroupIndex(boolean verifyGroupIndex) {
+        this.verifyGroupIndex = verifyGroupIndex;
+    }
+
+    public List<String> verifyGroupIndex() {
+        List<String> problems = new ArrayList<>();
+        for (QueueShard shard : shards.values()) {
+            problems.addAll(shard.verify());
+            for (QueuePlayer queuePlayer : shard.getWaiting()) {
+                UUID playerId = queuePlayer.getPlayerId();
+                QueueTicket ticket = tickets.get(playerId);
+                if (ticket == null || !ticket.getShards().contains(shard)) {
+                    problems.add("等待中的玩家缺少分片索引: " + playerId + " -> " + shard.getQueue().getName());
+                }
+            }
+            for (UUID playerId : shard.getGroupedPlayers()) {
+                QueueTicket ticket = tickets.get(playerId);
+                if (ticket == null || ticket.getClaimedBy() != shard.getQueue()) {
+                    problems.add("队伍成员缺少分片索引: " + playerId + " -> " + shard.getQueue().getName());
+                }
+            }
+        }
+        for (Map.Entry<UUID, QueueTicket> entry : tickets.entrySet()) {
+            QueueTicket ticket = entry.getValue();
+            int groups = 0;
+            for (QueueShard shard : ticket.getShards()) {
+                if (shard.getPlayerGroup(entry.getKey()) != null) {
+                    groups++;
+                } else if (!shard.isWaiting(entry.getKey())) {
+                    problems.add("分片索引指向空位置: " + entry.getKey() + " -> " + shard.getQueue().getName());
+                }
+            }
+            if (groups > 1) {
+                problems.add("玩家同时处于多个队伍: " + entry.getKey());
+            }
+        }
+        return problems;
+    }
+
+    private void checkGroupIndex() {
+        if (!verifyGroupIndex) {
+            return;
+        }
+        for (String problem : verifyGroupIndex()) {
+            plugin.getLogger().warning("队伍索引不一致: " + problem);
+        }
     }
 }
@@ -1,20 +1,75 @@
 package cn.ymjacky.queue;
 
+import org.bukkit.Location;
 import org.bukkit.entity.Player;
 
+import java.util.UUID;
+
 public class QueuePlayer {
+    private final UUID playerId;
+    private final String node;
     private final Player player;
-    private GameQueue queue;
+    private final QueueTicket ticket;
+    private final String partyId;
+    private final String tier;
+    private final boolean bypass;
+    private final long joinedAt;
+    private volatile GameQueue queue;
+    private volatile Location lastLocation;
 
     public QueuePlayer(Player player) {
+        this(player, new QueueTicket(player.getUniqueId()), null, null, false);
+    }
+
+    public QueuePlayer(Player player, QueueTicket ticket, String partyId, String tier, boolean bypass) {
+        this(player, ticket, partyId, tier, bypass, System.currentTimeMillis());
+    }
+
+    public QueuePlayer(Player player, QueueTicket ticket, String partyId, String tier, boolean bypass, long joinedAt) {
+        this(player.getUniqueId(), null, player, ticket, partyId, tier, bypass, joinedAt);
+    }
+
+    // A player connected to another node whose joins are forwarded here; there is no local Player to message.
+    public QueuePlayer(UUID playerId, String node, QueueTicket ticket, String partyId, String tier, boolean bypass,
+                       long joinedAt) {
+        this(playerId, node, null, ticket, partyId, tier, bypass, joinedAt);
+    }
+
+    private QueuePlayer(UUID playerId, String node, Player player, QueueTicket ticket, String partyId, String tier,
+                        boolean bypass, long joinedAt) {
+        this.playerId = playerId;
+        this.node = node;
         this.player = player;
+        this.ticket = ticket;
+        this.partyId = partyId;
+        this.tier = tier;
+        this.bypass = bypass;
+        this.joinedAt = joinedAt;
         this.queue = null;
     }
 
+    public boolean isInParty(String partyId) {
+        return this.partyId != null && this.partyId.equals(partyId);
+    }
+
+    public boolean isRemote() {
+        return node != null;
+    }
+
     public boolean isOnline() {
         return player != null && player.isOnline();
     }
+    public UUID getPlayerId() { return playerId; }
+    public String getNode() { return node; }
     public Player getPlayer() { return player; }
+    public QueueTicket getTicket() { return ticket; }
+    public String getPartyId() { return partyId; }
+    public String getTier() { return tier; }
+    public boolean canBypass() { return bypass; }
+    public long getJoinedAt() { return joinedAt; }
     public GameQueue getQueue() { return queue; }
     public void setQueue(GameQueue queue) { this.queue = queue; }
+    // Only written from the thread that owns the player, so other threads can read it without touching the entity.
+    public Location getLastLocation() { return lastLocation; }
+    public void setLastLocation(Location lastLocation) { this.lastLocation = lastLocation; }
 }
\ No newline at end of file
@@ -0,0 +1,200 @@
+package cn.ymjacky.queue;
+
+import cn.ymjacky.manager.ConfigurationManager;
+import cn.ymjacky.metrics.QueueEvents;
+import cn.ymjacky.task.RegionFanout;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class QueueShard {
+
+    private final GameQueue queue;
+    private final Map<UUID, QueuePlayer> waiting;
+    private final Map<String, QueueGroup> groups;
+    private final Map<UUID, QueueGroup> playerGroups;
+    private final AtomicBoolean dirty;
+    private volatile boolean retired;
+    private volatile long lastActiveAt;
+
+    public QueueShard(GameQueue queue) {
+        this.queue = queue;
+        this.waiting = new ConcurrentHashMap<>();
+        this.groups = new ConcurrentHashMap<>();
+        this.playerGroups = new ConcurrentHashMap<>();
+        this.dirty = new AtomicBoolean();
+        this.lastActiveAt = System.currentTimeMillis();
+    }
+
+    public synchronized boolean join(QueuePlayer queuePlayer) {
+        if (retired || !queue.addPlayer(queuePlayer)) {
+            return false;
+        }
+        waiting.put(queuePlayer.getPlayerId(), queuePlayer);
+        lastActiveAt = System.currentTimeMillis();
+        dirty.set(true);
+        QueueEvents.join(queue, List.of(queuePlayer));
+        return true;
+    }
+
+    public synchronized boolean restore(List<QueuePlayer> unit) {
+        if (retired || !queue.restoreUnit(unit)) {
+            return false;
+        }
+        for (QueuePlayer queuePlayer : unit) {
+            waiting.put(queuePlayer.getPlayerId(), queuePlayer);
+        }
+        lastActiveAt = System.currentTimeMillis();
+        dirty.set(true);
+        return true;
+    }
+
+    public synchronized boolean joinParty(List<QueuePlayer> party) {
+        if (retired || !queue.addParty(party)) {
+            return false;
+        }
+        for (QueuePlayer queuePlayer : party) {
+            waiting.put(queuePlayer.getPlayerId(), queuePlayer);
+        }
+        lastActiveAt = System.currentTimeMillis();
+        dirty.set(true);
+        QueueEvents.join(queue, party);
+        return true;
+    }
+
+    public synchronized QueuePlayer removeWaiting(UUID playerId) {
+        QueuePlayer queuePlayer = waiting.remove(playerId);
+        if (queuePlayer != null) {
+            queue.removePlayer(queuePlayer);
+            dirty.set(true);
+            QueueEvents.leave(queue, playerId, null);
+        }
+        return queuePlayer;
+    }
+
+    public synchronized QueueGroup formGroup(int maxSize, int minSize, RegionFanout fanout,
+                                             ConfigurationManager configManager) {
+        QueueEvents.GroupFormed event = new QueueEvents.GroupFormed();
+        event.begin();
+        List<QueuePlayer> players = queue.pollGroup(maxSize, minSize);
+        if (players.isEmpty()) {
+            return null;
+        }
+        QueueGroup group = new QueueGroup(queue, players, fanout, configManager);
+        groups.put(group.getId(), group);
+        for (QueuePlayer player : players) {
+            UUID playerId = player.getPlayerId();
+            waiting.remove(playerId);
+            playerGroups.put(playerId, group);
+        }
+        dirty.set(true);
+        if (event.shouldCommit()) {
+            event.queue = queue.getInstanceKey();
+            event.groupId = group.getId();
+            event.size = players.size();
+            event.remaining = waiting.size();
+            event.commit();
+        }
+        return group;
+    }
+
+    public synchronized List<QueueGroup> formFullGroups(RegionFanout fanout, ConfigurationManager configManager) {
+        List<QueueGroup> formed = new ArrayList<>();
+        while (queue.hasFullGroup()) {
+            QueueGroup group = formGroup(queue.getMaxPlayers(), queue.getMaxPlayers(), fanout, configManager);
+            if (group == null) {
+                break;
+            }
+            formed.add(group);
+        }
+        return formed;
+    }
+
+    public synchronized QueueGroup removeFromGroup(UUID playerId) {
+        QueueGroup group = playerGroups.remove(playerId);
+        if (group != null) {
+            group.removePlayer(playerId);
+            QueueEvents.leave(queue, playerId, group);
+        }
+        return group;
+    }
+
+    public synchronized List<UUID> removeGroup(QueueGroup group) {
+        if (!groups.remove(group.getId(), group)) {
+            return Collections.emptyList();
+        }
+        lastActiveAt = System.currentTimeMillis();
+        List<UUID> released = new ArrayList<>();
+        for (UUID playerId : group.getPlayerIds()) {
+            if (playerGroups.remove(playerId, group)) {
+                released.add(playerId);
+            }
+        }
+        return released;
+    }
+
+    // Once retired the shard accepts no more joins, so an idle overflow instance can be dropped safely.
+    public synchronized boolean retireIfIdle(long idleSince) {
+        if (!retired && waiting.isEmpty() && groups.isEmpty() && lastActiveAt <= idleSince) {
+            retired = true;
+        }
+        return retired;
+    }
+
+    public QueueGroup getPlayerGroup(UUID playerId) {
+        return playerGroups.get(playerId);
+    }
+
+    public boolean isActive(QueueGroup group) {
+        return groups.get(group.getId()) == group;
+    }
+
+    public boolean isWaiting(UUID playerId) {
+        return waiting.containsKey(playerId);
+    }
+
+    public synchronized List<String> verify() {
+        List<String> problems = new ArrayList<>();
+        for (Map.Entry<UUID, QueueGroup> entry : playerGroups.entrySet()) {
+            QueueGroup group = entry.getValue();
+            if (groups.get(group.getId()) != group) {
+                problems.add("索引指向已移除的队伍: " + entry.getKey() + " -> " + group.getId());
+            } else if (!group.containsPlayer(entry.getKey())) {
+                problems.add("索引中的玩家不在队伍内: " + entry.getKey() + " -> " + group.getId());
+            }
+        }
+        for (QueueGroup group : groups.values()) {
+            for (UUID playerId : group.getPlayerIds()) {
+                if (playerGroups.get(playerId) != group) {
+                    problems.add("队伍成员缺少索引: " + playerId + " -> " + group.getId());
+                }
+            }
+        }
+        for (UUID playerId : waiting.keySet()) {
+            if (!queue.contains(playerId)) {
+                problems.add("等待中的玩家不在队列内: " + playerId + " -> " + queue.getName());
+            }
+        }
+        return problems;
+    }
+
+    public synchronized void clear() {
+        queue.clear();
+        waiting.clear();
+        groups.clear();
+        playerGroups.clear();
+        dirty.set(true);
+    }
+
+    // Set on every change to the waiting line; the HUD refreshes a queue only after taking this flag.
+    public boolean takeDirty() {
+        return dirty.getAndSet(false);
+    }
+
+    // Getters
+    public GameQueue getQueue() { return queue; }
+    public Collection<QueuePlayer> getWaiting() { return waiting.values(); }
+    public Collection<QueueGroup> getGroups() { return groups.values(); }
+    public Set<UUID> getGroupedPlayers() { return playerGroups.keySet(); }
+}
@@ -0,0 +1,37 @@
+package cn.ymjacky.queue;
+
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class QueueTicket {
+
+    private final UUID playerId;
+    private final Set<QueueShard> shards;
+    private final AtomicReference<GameQueue> claimedBy;
+
+    public QueueTicket(UUID playerId) {
+        this.playerId = playerId;
+        this.shards = ConcurrentHashMap.newKeySet();
+        this.claimedBy = new AtomicReference<>();
+    }
+
+    // Only one queue can ever win a ticket, no matter how many of its queues fill in the same tick.
+    public boolean claim(GameQueue queue) {
+        return claimedBy.compareAndSet(null, queue);
+    }
+
+    public void release(GameQueue queue) {
+        claimedBy.compareAndSet(queue, null);
+    }
+
+    public boolean isClaimed() {
+        return claimedBy.get() != null;
+    }
+
+    // Getters
+    public UUID getPlayerId() { return playerId; }
+    public GameQueue getClaimedBy() { return claimedBy.get(); }
+    public Set<QueueShard> getShards() { return shards; }
+}
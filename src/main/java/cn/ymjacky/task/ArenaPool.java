@@ -0,0 +1,158 @@
+package cn.ymjacky.task;
+
+import cn.ymjacky.config.ArenaTarget;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class ArenaPool {
+
+    private static final int MAX_BACKOFF_SHIFT = 5;
+
+    private final Slot[] slots;
+    private final long failureCooldownMillis;
+    private long rejected;
+
+    public ArenaPool(List<ArenaTarget> targets, long failureCooldownMillis) {
+        this.slots = new Slot[targets.size()];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = new Slot(targets.get(i));
+        }
+        this.failureCooldownMillis = failureCooldownMillis;
+    }
+
+    // Least-loaded target by utilization that can still seat the whole group and is not cooling down.
+    public synchronized Lease acquire(int players) {
+        long now = System.currentTimeMillis();
+        Slot best = null;
+        for (Slot slot : slots) {
+            if (slot.failingUntil > now || !slot.fits(players)) {
+                continue;
+            }
+            if (best == null || slot.utilization() < best.utilization()) {
+                best = slot;
+            }
+        }
+        if (best == null) {
+            rejected++;
+            return null;
+        }
+        best.load += players;
+        best.dispatched++;
+        return new Lease(best, players);
+    }
+
+    public synchronized void release(Lease lease) {
+        if (lease.released.compareAndSet(false, true)) {
+            lease.slot.load = Math.max(0, lease.slot.load - lease.players);
+        }
+    }
+
+    // A target that rejects the join command cools down, doubling the wait on each consecutive failure.
+    // dispatchCommand only returns false for an unknown command, so this rarely sees a rejected join by itself.
+    public synchronized void report(Lease lease, boolean success) {
+        Slot slot = lease.slot;
+        if (success) {
+            if (!lease.failed.get()) {
+                slot.failures = 0;
+            }
+            return;
+        }
+        if (lease.failed.compareAndSet(false, true)) {
+            fail(slot);
+        }
+    }
+
+    // For arena plugins that know a join was refused, e.g. from ArenaHook.commit; cools the target down like a
+    // failed join command.
+    public synchronized void reportFailure(ArenaTarget target) {
+        for (Slot slot : slots) {
+            if (slot.target == target) {
+                fail(slot);
+                return;
+            }
+        }
+    }
+
+    private void fail(Slot slot) {
+        slot.failures++;
+        slot.failed++;
+        int shift = Math.min(slot.failures - 1, MAX_BACKOFF_SHIFT);
+        slot.failingUntil = System.currentTimeMillis() + (failureCooldownMillis << shift);
+    }
+
+    public synchronized double getUtilization() {
+        long load = 0;
+        long capacity = 0;
+        for (Slot slot : slots) {
+            if (slot.target.getCapacity() > 0) {
+                load += slot.load;
+                capacity += slot.target.getCapacity();
+            }
+        }
+        return capacity == 0 ? 0 : load / (double) capacity;
+    }
+
+    public synchronized long getRejected() {
+        return rejected;
+    }
+
+    public synchronized List<TargetStatus> getTargets() {
+        long now = System.currentTimeMillis();
+        List<TargetStatus> targets = new ArrayList<>(slots.length);
+        for (Slot slot : slots) {
+            targets.add(new TargetStatus(slot.target.getName(), slot.load, slot.target.getCapacity(),
+                    slot.failingUntil > now, slot.dispatched, slot.failed));
+        }
+        return targets;
+    }
+
+    public static final class Lease {
+        private final Slot slot;
+        private final int players;
+        private final AtomicBoolean released;
+        private final AtomicBoolean failed;
+
+        private Lease(Slot slot, int players) {
+            this.slot = slot;
+            this.players = players;
+            this.released = new AtomicBoolean();
+            this.failed = new AtomicBoolean();
+        }
+
+        // Getters
+        public ArenaTarget getTarget() { return slot.target; }
+        public String getCommand() { return slot.target.getCommand(); }
+        public String getTargetName() { return slot.target.getName(); }
+        public int getPlayers() { return players; }
+    }
+
+    public record TargetStatus(String name, int load, int capacity, boolean failing, long dispatched, long failed) {
+
+        public boolean isSaturated() {
+            return capacity > 0 && load >= capacity;
+        }
+    }
+
+    private static final class Slot {
+        private final ArenaTarget target;
+        private int load;
+        private int failures;
+        private long failingUntil;
+        private long dispatched;
+        private long failed;
+
+        private Slot(ArenaTarget target) {
+            this.target = target;
+        }
+
+        private boolean fits(int players) {
+            return target.getCapacity() <= 0 || load + players <= target.getCapacity();
+        }
+
+        private double utilization() {
+            return target.getCapacity() <= 0 ? 0 : load / (double) target.getCapacity();
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package cn.ymjacky.task;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+public class GameDispatcher {
+
+    private final TimingWheel wheel;
+    private final int playersPerTick;
+    private final int perQueueConcurrency;
+    private final int settleTicks;
+    private final Deque<Dispatch> pending;
+    private final Map<String, Integer> inFlight;
+    private final LongAdder dispatchedGroups;
+    private final LongAdder dispatchedPlayers;
+    private final LongAdder latencyNanos;
+    private final AtomicLong maxLatencyNanos;
+    private final TimingWheel.Timer tickTimer;
+    private int pendingPlayers;
+    private int tokens;
+
+    public GameDispatcher(TimingWheel wheel, int playersPerTick, int perQueueConcurrency, int settleTicks) {
+        this.wheel = wheel;
+        this.playersPerTick = playersPerTick;
+        this.perQueueConcurrency = perQueueConcurrency;
+        this.settleTicks = settleTicks;
+        this.pending = new ArrayDeque<>();
+        this.inFlight = new HashMap<>();
+        this.dispatchedGroups = new LongAdder();
+        this.dispatchedPlayers = new LongAdder();
+        this.latencyNanos = new LongAdder();
+        this.maxLatencyNanos = new AtomicLong();
+        this.tokens = playersPerTick;
+        this.tickTimer = wheel.scheduleAtFixedRate(1L, 1L, this::tick);
+    }
+
+    public synchronized void submit(String queueName, int size, Runnable action) {
+        pending.add(new Dispatch(queueName.toLowerCase(), size, action, System.nanoTime()));
+        pendingPlayers += size;
+    }
+
+    private void tick() {
+        List<Dispatch> ready = new ArrayList<>();
+        synchronized (this) {
+            tokens = Math.min(tokens + playersPerTick, playersPerTick);
+            Iterator<Dispatch> iterator = pending.iterator();
+            while (iterator.hasNext() && (playersPerTick <= 0 || tokens > 0)) {
+                Dispatch dispatch = iterator.next();
+                String queueName = dispatch.queueName();
+                int active = inFlight.getOrDefault(queueName, 0);
+                if (perQueueConcurrency > 0 && active >= perQueueConcurrency) {
+                    continue;
+                }
+                iterator.remove();
+                inFlight.put(queueName, active + 1);
+                pendingPlayers -= dispatch.size();
+                tokens -= dispatch.size();
+                ready.add(dispatch);
+            }
+        }
+
+        for (Dispatch dispatch : ready) {
+            long latency = System.nanoTime() - dispatch.submittedAt();
+            latencyNanos.add(latency);
+            maxLatencyNanos.accumulateAndGet(latency, Math::max);
+            dispatchedGroups.increment();
+            dispatchedPlayers.add(dispatch.size());
+
+            dispatch.action().run();
+            if (settleTicks > 0) {
+                wheel.schedule(settleTicks, () -> release(dispatch.queueName()));
+            } else {
+                release(dispatch.queueName());
+            }
+        }
+    }
+
+    private synchronized void release(String queueName) {
+        inFlight.computeIfPresent(queueName, (_, active) -> active > 1 ? active - 1 : null);
+    }
+
+    public synchronized int getPendingGroups() {
+        return pending.size();
+    }
+
+    public synchronized int getPendingPlayers() {
+        return pendingPlayers;
+    }
+
+    public long getDispatchedGroups() {
+        return dispatchedGroups.sum();
+    }
+
+    public long getDispatchedPlayers() {
+        return dispatchedPlayers.sum();
+    }
+
+    public double getAverageLatencyMillis() {
+        long count = dispatchedGroups.sum();
+        return count == 0 ? 0 : latencyNanos.sum() / (double) count / 1_000_000;
+    }
+
+    public double getMaxLatencyMillis() {
+        return maxLatencyNanos.get() / 1_000_000.0;
+    }
+
+    public synchronized void shutdown() {
+        tickTimer.cancel();
+        pending.clear();
+        inFlight.clear();
+        pendingPlayers = 0;
+    }
+
+    private record Dispatch(String queueName, int size, Runnable action, long submittedAt) {
+    }
+}
@@ -0,0 +1,56 @@
+package cn.ymjacky.task;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+public class MpscMailbox<T> {
+
+    private final AtomicReference<Node<T>> tail;
+    private final AtomicInteger size;
+    private Node<T> head;
+
+    public MpscMailbox() {
+        Node<T> stub = new Node<>(null);
+        this.head = stub;
+        this.tail = new AtomicReference<>(stub);
+        this.size = new AtomicInteger();
+    }
+
+    public void offer(T value) {
+        Node<T> node = new Node<>(value);
+        size.incrementAndGet();
+        Node<T> previous = tail.getAndSet(node);
+        previous.next = node;
+    }
+
+    public int drain(Consumer<T> consumer, int limit) {
+        int drained = 0;
+        while (drained < limit) {
+            Node<T> next = head.next;
+            if (next == null) {
+                break;
+            }
+            T value = next.value;
+            next.value = null;
+            head = next;
+            size.decrementAndGet();
+            drained++;
+            consumer.accept(value);
+        }
+        return drained;
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    private static final class Node<T> {
+        private T value;
+        private volatile Node<T> next;
+
+        private Node(T value) {
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package cn.ymjacky.task;
+
+import cn.ymjacky.manager.ConfigurationManager;
+import cn.ymjacky.queue.GameQueue;
+import cn.ymjacky.queue.QueueManager;
+import cn.ymjacky.queue.QueuePlayer;
+import cn.ymjacky.queue.QueueShard;
+import net.kyori.adventure.bossbar.BossBar;
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.serializer.legacy.LegacyComponentSerializer;
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class QueueHud {
+
+    // The client hides an action bar after about three seconds, so it has to be resent even when nothing changed.
+    private static final long ACTION_BAR_KEEP_ALIVE_TICKS = 40L;
+
+    private final Plugin plugin;
+    private final ConfigurationManager configManager;
+    private final QueueManager queueManager;
+    private final boolean bossBarMode;
+    private final long intervalTicks;
+    private final Map<QueueShard, Map<UUID, BossBar>> bars;
+    private final TimingWheel.Timer timer;
+    private long sinceKeepAlive;
+
+    public QueueHud(Plugin plugin, ConfigurationManager configManager, QueueManager queueManager,
+                    TimingWheel wheel, long intervalTicks, boolean bossBarMode) {
+        this.plugin = plugin;
+        this.configManager = configManager;
+        this.queueManager = queueManager;
+        this.bossBarMode = bossBarMode;
+        this.intervalTicks = Math.max(1, intervalTicks);
+        this.bars = new ConcurrentHashMap<>();
+        this.timer = wheel.scheduleAtFixedRate(this.intervalTicks, this.intervalTicks,
+                QueueScheduler.timed("hud-refresh", this::refresh));
+    }
+
+    private void refresh() {
+        boolean keepAlive = false;
+        if (!bossBarMode) {
+            sinceKeepAlive += intervalTicks;
+            if (sinceKeepAlive >= ACTION_BAR_KEEP_ALIVE_TICKS) {
+                sinceKeepAlive = 0;
+                keepAlive = true;
+            }
+        }
+
+        Collection<QueueShard> shards = queueManager.getShards();
+        for (QueueShard shard : shards) {
+            if (shard.takeDirty() || (keepAlive && !shard.getWaiting().isEmpty())) {
+                refresh(shard);
+            }
+        }
+        if (bossBarMode && !bars.isEmpty()) {
+            Set<QueueShard> live = Collections.newSetFromMap(new IdentityHashMap<>());
+            live.addAll(shards);
+            bars.entrySet().removeIf(entry -> {
+                if (live.contains(entry.getKey())) {
+                    return false;
+                }
+                entry.getValue().forEach(this::hide);
+                return true;
+            });
+        }
+    }
+
+    private void refresh(QueueShard shard) {
+        GameQueue queue = shard.getQueue();
+        int size = queue.getPlayerCount();
+        if (!bossBarMode) {
+            queueManager.getFanout().sendEach(shard.getWaiting(), queuePlayer -> {
+                int position = queue.getPosition(queuePlayer.getPlayerId());
+                return position == 0 ? null : RegionFanout.Payload.actionBar(text(queue, position, size));
+            });
+            return;
+        }
+
+        Map<UUID, BossBar> shown = bars.computeIfAbsent(shard, _ -> new ConcurrentHashMap<>());
+        Set<UUID> current = new HashSet<>();
+        for (QueuePlayer queuePlayer : shard.getWaiting()) {
+            // Boss bars live on the node the player is connected to, so remote players are left out here.
+            if (!queuePlayer.isOnline()) {
+                continue;
+            }
+            Player player = queuePlayer.getPlayer();
+            int position = queue.getPosition(player.getUniqueId());
+            if (position == 0) {
+                continue;
+            }
+            current.add(player.getUniqueId());
+            Component title = LegacyComponentSerializer.legacySection().deserialize(text(queue, position, size));
+            float progress = size <= 1 ? 1f : 1f - (position - 1) / (float) size;
+            BossBar bar = shown.get(player.getUniqueId());
+            if (bar == null) {
+                BossBar created = BossBar.bossBar(title, progress, BossBar.Color.GREEN, BossBar.Overlay.PROGRESS);
+                shown.put(player.getUniqueId(), created);
+                player.getScheduler().run(plugin, _ -> player.showBossBar(created), null);
+            } else {
+                bar.name(title);
+                bar.progress(progress);
+            }
+        }
+        shown.entrySet().removeIf(entry -> {
+            if (current.contains(entry.getKey())) {
+                return false;
+            }
+            hide(entry.getKey(), entry.getValue());
+            return true;
+        });
+    }
+
+    private void hide(UUID playerId, BossBar bar) {
+        Player player = Bukkit.getPlayer(playerId);
+        if (player != null) {
+            player.getScheduler().run(plugin, _ -> player.hideBossBar(bar), null);
+        }
+    }
+
+    private String text(GameQueue queue, int position, int size) {
+        return configManager.getMessage("queue.hud.text",
+                "queue", queue.getName(),
+                "position", position,
+                "size", size,
+                "wait", formatWait(queue.estimateWait(position)));
+    }
+
+    public static String formatWait(long millis) {
+        if (millis < 0) {
+            return "--";
+        }
+        long seconds = Math.max(1, millis / 1000);
+        return seconds < 60 ? "约 " + seconds + " 秒" : "约 " + (seconds + 30) / 60 + " 分钟";
+    }
+
+    public void shutdown() {
+        timer.cancel();
+        for (Map<UUID, BossBar> shown : bars.values()) {
+            shown.forEach(this::hide);
+        }
+        bars.clear();
+    }
+}
@@ -1,126 +1,508 @@
 package cn.ymjacky.task;
 
 import org.bukkit.Bukkit;
-import cn.ymjacky.SPToolsPlugin;
+import cn.ymjacky.config.ArenaTarget;
+import cn.ymjacky.config.QueueConfig;
+import cn.ymjacky.metrics.LatencyHistogram;
+import cn.ymjacky.metrics.QueueEvents;
+import cn.ymjacky.queue.ArenaHook;
 import cn.ymjacky.queue.QueueGroup;
 import cn.ymjacky.queue.QueueManager;
 import io.papermc.paper.threadedregions.scheduler.ScheduledTask;
+import org.bukkit.plugin.Plugin;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
 
 public class QueueScheduler {
 
-    private final SPToolsPlugin plugin;
+    private static final long ARENA_RETRY_TICKS = 20L;
+
+    private final Plugin plugin;
     private final QueueManager queueManager;
-    private final Map<String, ScheduledTask> activeTasks;
-    private final Queue<String> groupQueue;
-    private boolean isProcessing;
+    private final TimingWheel wheel;
+    private final Map<String, GroupTimers> groupTimers;
+    private final Map<String, Lane> lanes;
+    private final Lane sharedLane;
+    private final int lanesPerQueue;
+    private final LongAdder promptCount;
+    private final LongAdder promptLatencyNanos;
+    private final AtomicLong maxPromptLatencyNanos;
+    private final GameDispatcher dispatcher;
+    private final Map<String, ArenaPool> arenaPools;
+    private final long arenaCooldownMillis;
+    private final int arenaMaxRetries;
+    private final CopyOnWriteArrayList<ArenaHook> arenaHooks;
+    private final LatencyHistogram readyToGame;
+    private final ScheduledTask tickTask;
 
-    public QueueScheduler(SPToolsPlugin plugin, QueueManager queueManager) {
+    public QueueScheduler(Plugin plugin, QueueManager queueManager) {
         this.plugin = plugin;
         this.queueManager = queueManager;
-        this.activeTasks = new HashMap<>();
-        this.groupQueue = new LinkedList<>();
-        this.isProcessing = false;
+        this.wheel = new TimingWheel();
+        this.groupTimers = new ConcurrentHashMap<>();
+        this.lanes = new ConcurrentHashMap<>();
+        boolean laneMode = plugin.getConfig().getString("scheduler.mode", "single").equalsIgnoreCase("lanes");
+        this.lanesPerQueue = plugin.getConfig().getInt("scheduler.lanes-per-queue", 4);
+        this.sharedLane = laneMode ? null : new Lane(1, false);
+        this.promptCount = new LongAdder();
+        this.promptLatencyNanos = new LongAdder();
+        this.maxPromptLatencyNanos = new AtomicLong();
+        this.dispatcher = new GameDispatcher(wheel,
+                plugin.getConfig().getInt("dispatch.players-per-tick", 6),
+                plugin.getConfig().getInt("dispatch.per-queue-concurrency", 2),
+                plugin.getConfig().getInt("dispatch.settle-ticks", 20));
+        this.arenaPools = new ConcurrentHashMap<>();
+        this.arenaHooks = new CopyOnWriteArrayList<>();
+        this.readyToGame = new LatencyHistogram();
+        this.arenaCooldownMillis = Math.max(1, plugin.getConfig().getInt("dispatch.arena-retry-seconds", 30)) * 1000L;
+        this.arenaMaxRetries = (int) (Math.max(1, plugin.getConfig().getInt("dispatch.arena-max-wait-seconds", 120))
+                * 20L / ARENA_RETRY_TICKS);
+        this.tickTask = Bukkit.getGlobalRegionScheduler().runAtFixedRate(plugin, _ -> wheel.tick(), 1L, 1L);
     }
 
     public void scheduleGroup(QueueGroup group) {
-        synchronized (groupQueue) {
-            groupQueue.add(group.getId());
+        scheduleGroups(List.of(group));
+    }
+
+    public void scheduleGroups(Collection<QueueGroup> groups) {
+        long now = System.nanoTime();
+        Set<Lane> touched = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (QueueGroup group : groups) {
+            Lane lane = laneOf(group);
+            GroupTimers timers = timersOf(group.getId());
+            timers.groupId = group.getId();
+            timers.group = group;
+            timers.lane = lane;
+            timers.scheduledAt = now;
+            reserveArena(group, timers);
+            synchronized (lane) {
+                lane.pending.add(group.getId());
+            }
+            touched.add(lane);
         }
+        for (Lane lane : touched) {
+            drain(lane);
+        }
+    }
 
-        if (!isProcessing) {
-            processNextGroup();
+    private Lane laneOf(QueueGroup group) {
+        if (sharedLane != null) {
+            return sharedLane;
         }
+        int limit = lanesPerQueue <= 0 ? Integer.MAX_VALUE : lanesPerQueue;
+        return lanes.computeIfAbsent(group.getQueue().getName().toLowerCase(), _ -> new Lane(limit, true));
     }
 
-    private void processNextGroup() {
-        synchronized (groupQueue) {
-            if (isProcessing || groupQueue.isEmpty()) {
-                return;
+    private void drain(Lane lane) {
+        List<GroupTimers> opened = new ArrayList<>();
+        synchronized (lane) {
+            while (lane.buffering == 0 && lane.active < lane.limit && !lane.pending.isEmpty()) {
+                String groupId = lane.pending.poll();
+                GroupTimers timers = groupTimers.get(groupId);
+                if (timers == null || timers.removed) {
+                    continue;
+                }
+                timers.holdingLane = true;
+                lane.active++;
+                opened.add(timers);
             }
-            isProcessing = true;
-            String groupId = groupQueue.poll();
-            ScheduledTask task = Bukkit.getGlobalRegionScheduler().runDelayed(plugin, _ -> {
-                QueueGroup group = queueManager.getGroup(groupId);
-                if (group != null) {
-                    startConfirmation(group);
+        }
+        for (GroupTimers timers : opened) {
+            timers.process = wheel.schedule(1L, timed("process", timers.group, () -> {
+                QueueGroup group = timers.group;
+                if (!queueManager.isActiveGroup(group)) {
+                    cancelGroupTasks(timers.groupId);
+                    return;
                 }
-                synchronized (groupQueue) {
-                    isProcessing = false;
-                    if (!groupQueue.isEmpty()) {
-                        processNextGroup();
-                    }
+                startConfirmation(group, timers);
+                if (!lane.holdUntilResolved) {
+                    releaseLane(timers);
+                }
+                if (group.beginCountdown()) {
+                    startCountdown(group);
                 }
-            }, 1L);
+            }));
+        }
+    }
 
-            activeTasks.put(groupId + "_process", task);
+    private void releaseLane(GroupTimers timers) {
+        Lane lane = timers.lane;
+        if (lane == null) {
+            return;
+        }
+        synchronized (lane) {
+            if (!timers.holdingLane) {
+                return;
+            }
+            timers.holdingLane = false;
+            lane.active--;
         }
+        drain(lane);
     }
 
-    private void startConfirmation(QueueGroup group) {
+    private void startConfirmation(QueueGroup group, GroupTimers timers) {
         String groupId = group.getId();
+        if (!group.beginConfirmation()) {
+            cancelGroupTasks(groupId);
+            return;
+        }
+        recordPromptLatency(System.nanoTime() - timers.scheduledAt);
+
         int confirmationTicks = group.getConfirmationTime() * 20;
-        ScheduledTask timeoutTask = Bukkit.getGlobalRegionScheduler().runDelayed(plugin, _ -> {
-            QueueGroup currentGroup = queueManager.getGroup(groupId);
-            if (currentGroup != null && !currentGroup.allConfirmed()) {
-                currentGroup.timeout();
-                queueManager.removeGroup(groupId);
+        timers.timeout = wheel.schedule(confirmationTicks, timed("timeout", group, () -> {
+            if (queueManager.isActiveGroup(group) && group.timeout()) {
+                startBufferPeriod(timers.lane, group.getQueue().getConfig().getBufferTime());
+                queueManager.removeGroup(group);
                 cancelGroupTasks(groupId);
-                scheduleBufferPeriod();
             }
-        }, confirmationTicks);
-
-        activeTasks.put(groupId + "_timeout", timeoutTask);
+        }));
     }
 
     public void startCountdown(QueueGroup group) {
         String groupId = group.getId();
-        ScheduledTask timeoutTask = activeTasks.remove(groupId + "_timeout");
-        if (timeoutTask != null) {
-            timeoutTask.cancel();
+        GroupTimers timers = timersOf(groupId);
+        cancel(timers.timeout);
+        timers.timeout = null;
+        releaseLane(timers);
+
+        timers.countdown = wheel.scheduleAtFixedRate(1L, 20L, timed("countdown", group, () -> {
+            if (!queueManager.isActiveGroup(group)) {
+                cancelGroupTasks(groupId);
+            } else if (group.updateCountdown()) {
+                cancel(timers.countdown);
+                submitDispatch(group);
+            }
+        }));
+    }
+
+    private void submitDispatch(QueueGroup group) {
+        dispatcher.submit(group.getQueue().getName(), group.getSize(), () -> dispatchToArena(group));
+    }
+
+    // Reserves the arena up front so hooks can provision it while players confirm. A group resolved in the meantime
+    // gets its prepare answered by an abort straight away.
+    private void reserveArena(QueueGroup group, GroupTimers timers) {
+        ArenaPool pool = getArenaPool(group.getQueue().getConfig());
+        ArenaPool.Lease lease = pool.acquire(group.getSize());
+        if (lease == null) {
+            return;
+        }
+        fireArenaHooks(ArenaHook::prepare, group, lease);
+        boolean attached;
+        synchronized (timers) {
+            attached = !timers.resolved;
+            if (attached) {
+                timers.lease = lease;
+            }
         }
+        if (!attached) {
+            pool.release(lease);
+            fireArenaHooks(ArenaHook::abort, group, lease);
+        }
+    }
 
-        ScheduledTask countdownTask = Bukkit.getGlobalRegionScheduler().runAtFixedRate(plugin, scheduledTask -> {
-            QueueGroup currentGroup = queueManager.getGroup(groupId);
-            if (currentGroup != null) {
-                currentGroup.updateCountdown();
+    private void dispatchToArena(QueueGroup group) {
+        QueueEvents.Dispatch event = new QueueEvents.Dispatch();
+        event.begin();
+        String outcome = dispatch(group, event);
+        if (event.shouldCommit()) {
+            event.queue = group.getQueue().getInstanceKey();
+            event.groupId = group.getId();
+            event.players = group.getSize();
+            event.outcome = outcome;
+            event.commit();
+        }
+    }
+
+    private String dispatch(QueueGroup group, QueueEvents.Dispatch event) {
+        String groupId = group.getId();
+        GroupTimers timers = groupTimers.get(groupId);
+        if (timers == null || !queueManager.isActiveGroup(group)) {
+            cancelGroupTasks(groupId);
+            return "inactive";
+        }
+        ArenaPool pool = getArenaPool(group.getQueue().getConfig());
+        if (timers.lease == null) {
+            reserveArena(group, timers);
+        }
+        ArenaPool.Lease lease = timers.lease;
+        if (lease == null) {
+            // Every target is saturated or cooling down; keep the group and try again shortly, up to a limit.
+            if (++timers.arenaRetries > arenaMaxRetries) {
+                group.broadcastMessage(queueManager.getConfigManager().getMessage("queue.group.no-arena"));
+                group.cancel();
+                queueManager.removeGroup(group);
+                cancelGroupTasks(groupId);
+                return "no-arena-timeout";
+            }
+            wheel.schedule(ARENA_RETRY_TICKS, timed("arena-retry", group, () -> submitDispatch(group)));
+            return "no-arena";
+        }
+        // Claim the lease before starting, so a concurrent cancelGroupTasks either sees it committed or releases it
+        // itself; never both.
+        boolean claimed;
+        synchronized (timers) {
+            claimed = !timers.resolved && timers.lease == lease;
+            if (claimed) {
+                timers.resolved = true;
+            }
+        }
+        if (!claimed) {
+            cancelGroupTasks(groupId);
+            return "inactive";
+        }
+        event.arena = lease.getTarget().getName();
+        AtomicBoolean arrived = new AtomicBoolean();
+        boolean started = group.complete(lease.getCommand(), success -> {
+            pool.report(lease, success);
+            if (success && arrived.compareAndSet(false, true)) {
+                recordReadyToGame(group);
+            }
+        });
+        if (started) {
+            fireArenaHooks(ArenaHook::commit, group, lease);
+            queueManager.completeGroup(group);
+            long holdTicks = group.getQueue().getConfig().getArenaHoldSeconds() * 20L;
+            if (holdTicks > 0) {
+                wheel.schedule(holdTicks, () -> pool.release(lease));
             } else {
-                scheduledTask.cancel();
+                pool.release(lease);
             }
-        }, 1L, 20L);
+        } else {
+            pool.release(lease);
+            fireArenaHooks(ArenaHook::abort, group, lease);
+        }
+        cancelGroupTasks(groupId);
+        return started ? "started" : "lost";
+    }
 
-        activeTasks.put(groupId + "_countdown", countdownTask);
+    // Periodic passes that are not tied to one group (matchmaking, HUD refresh, mailbox drain) report no group.
+    public static Runnable timed(String task, Runnable action) {
+        return timed(task, null, action);
     }
 
-    private void scheduleBufferPeriod() {
-        Bukkit.getGlobalRegionScheduler().runDelayed(plugin, _ -> {
-            synchronized (groupQueue) {
-                if (!groupQueue.isEmpty()) {
-                    processNextGroup();
+    // Wraps a timing wheel callback so a stalled tick can be attributed to the task and group that ran in it.
+    private static Runnable timed(String task, QueueGroup group, Runnable action) {
+        return () -> {
+            QueueEvents.SchedulerTask event = new QueueEvents.SchedulerTask();
+            event.begin();
+            try {
+                action.run();
+            } finally {
+                if (event.shouldCommit()) {
+                    event.task = task;
+                    if (group != null) {
+                        event.queue = group.getQueue().getInstanceKey();
+                        event.groupId = group.getId();
+                    }
+                    event.commit();
                 }
             }
-        }, 20L);
+        };
+    }
+
+    private void recordReadyToGame(QueueGroup group) {
+        long lastConfirmedAt = group.getLastConfirmedAt();
+        if (lastConfirmedAt > 0) {
+            readyToGame.record(System.currentTimeMillis() - lastConfirmedAt);
+        }
+    }
+
+    private void fireArenaHooks(HookCall call, QueueGroup group, ArenaPool.Lease lease) {
+        for (ArenaHook hook : arenaHooks) {
+            try {
+                call.fire(hook, group, lease.getTarget());
+            } catch (RuntimeException e) {
+                plugin.getLogger().log(Level.WARNING, "竞技场钩子执行出错: " + hook.getClass().getName(), e);
+            }
+        }
+    }
+
+    public void registerArenaHook(ArenaHook hook) {
+        arenaHooks.addIfAbsent(hook);
+    }
+
+    public void unregisterArenaHook(ArenaHook hook) {
+        arenaHooks.remove(hook);
+    }
+
+    public LatencyHistogram getReadyToGame() {
+        return readyToGame;
+    }
+
+    public ArenaPool getArenaPool(QueueConfig config) {
+        return arenaPools.computeIfAbsent(config.getName().toLowerCase(),
+                _ -> new ArenaPool(config.getArenas(), arenaCooldownMillis));
+    }
+
+    private void startBufferPeriod(Lane lane, int bufferTicks) {
+        if (lane == null || bufferTicks <= 0) {
+            return;
+        }
+        synchronized (lane) {
+            lane.buffering++;
+        }
+        wheel.schedule(bufferTicks, () -> {
+            synchronized (lane) {
+                lane.buffering--;
+            }
+            drain(lane);
+        });
     }
 
     public void cancelGroupTasks(String groupId) {
-        List<String> keysToRemove = new ArrayList<>();
-        for (Map.Entry<String, ScheduledTask> entry : activeTasks.entrySet()) {
-            if (entry.getKey().startsWith(groupId)) {
-                entry.getValue().cancel();
-                keysToRemove.add(entry.getKey());
+        GroupTimers timers = groupTimers.remove(groupId);
+        if (timers != null) {
+            timers.removed = true;
+            cancel(timers.process);
+            cancel(timers.timeout);
+            cancel(timers.countdown);
+            releaseLane(timers);
+            abortArena(timers);
+        }
+    }
+
+    private void abortArena(GroupTimers timers) {
+        ArenaPool.Lease lease;
+        synchronized (timers) {
+            if (timers.resolved) {
+                return;
             }
+            timers.resolved = true;
+            lease = timers.lease;
         }
-        for (String key : keysToRemove) {
-            activeTasks.remove(key);
+        if (lease == null) {
+            return;
         }
+        getArenaPool(timers.group.getQueue().getConfig()).release(lease);
+        fireArenaHooks(ArenaHook::abort, timers.group, lease);
+    }
+
+    private void recordPromptLatency(long latencyNanos) {
+        promptCount.increment();
+        promptLatencyNanos.add(latencyNanos);
+        maxPromptLatencyNanos.accumulateAndGet(latencyNanos, Math::max);
+    }
+
+    public long getPromptCount() {
+        return promptCount.sum();
+    }
+
+    public double getAveragePromptLatencyMillis() {
+        long count = promptCount.sum();
+        return count == 0 ? 0 : promptLatencyNanos.sum() / (double) count / 1_000_000;
+    }
+
+    public double getMaxPromptLatencyMillis() {
+        return maxPromptLatencyNanos.get() / 1_000_000.0;
+    }
+
+    public int getPendingGroups() {
+        int pending = 0;
+        for (Lane lane : allLanes()) {
+            synchronized (lane) {
+                pending += lane.pending.size();
+            }
+        }
+        return pending;
+    }
+
+    public int getOpenConfirmations() {
+        int active = 0;
+        for (Lane lane : allLanes()) {
+            synchronized (lane) {
+                active += lane.active;
+            }
+        }
+        return active;
+    }
+
+    public int getLiveTimers() {
+        return wheel.getLiveTimers();
+    }
+
+    public int getTrackedGroups() {
+        return groupTimers.size();
+    }
+
+    public TimingWheel getWheel() {
+        return wheel;
+    }
+
+    public GameDispatcher getDispatcher() {
+        return dispatcher;
     }
 
     public void shutdown() {
-        for (ScheduledTask task : activeTasks.values()) {
-            task.cancel();
+        tickTask.cancel();
+        dispatcher.shutdown();
+        wheel.clear();
+        for (GroupTimers timers : groupTimers.values()) {
+            abortArena(timers);
         }
-        activeTasks.clear();
-        groupQueue.clear();
-        isProcessing = false;
+        groupTimers.clear();
+        for (Lane lane : allLanes()) {
+            synchronized (lane) {
+                lane.pending.clear();
+                lane.active = 0;
+                lane.buffering = 0;
+            }
+        }
+        lanes.clear();
+    }
+
+    private Collection<Lane> allLanes() {
+        return sharedLane != null ? List.of(sharedLane) : lanes.values();
+    }
+
+    private GroupTimers timersOf(String groupId) {
+        return groupTimers.computeIfAbsent(groupId, _ -> new GroupTimers());
+    }
+
+    private static void cancel(TimingWheel.Timer timer) {
+        if (timer != null) {
+            timer.cancel();
+        }
+    }
+
+    private static final class Lane {
+        private final int limit;
+        private final boolean holdUntilResolved;
+        private final Queue<String> pending;
+        private int active;
+        private int buffering;
+
+        private Lane(int limit, boolean holdUntilResolved) {
+            this.limit = limit;
+            this.holdUntilResolved = holdUntilResolved;
+            this.pending = new ArrayDeque<>();
+        }
+    }
+
+    private static final class GroupTimers {
+        private volatile String groupId;
+        private volatile QueueGroup group;
+        private volatile Lane lane;
+        private volatile long scheduledAt;
+        private volatile boolean removed;
+        private volatile TimingWheel.Timer process;
+        private volatile TimingWheel.Timer timeout;
+        private volatile TimingWheel.Timer countdown;
+        // Written under the timers' monitor. resolved is set once, by whichever of dispatch (commit) and abortArena
+        // gets there first.
+        private volatile ArenaPool.Lease lease;
+        private boolean resolved;
+        private volatile int arenaRetries;
+        private boolean holdingLane;
+    }
+
+    @FunctionalInterface
+    private interface HookCall {
+        void fire(ArenaHook hook, QueueGroup group, ArenaTarget arena);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,173 @@
+package cn.ymjacky.task;
+
+import cn.ymjacky.queue.QueuePlayer;
+import net.kyori.adventure.sound.Sound;
+import net.kyori.adventure.text.serializer.legacy.LegacyComponentSerializer;
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+public class RegionFanout {
+
+    private static final int SECTION_SHIFT = 4;
+
+    private final Plugin plugin;
+    private final LongAdder batches;
+    private final LongAdder deliveries;
+    private final LongAdder handoffs;
+    private volatile BiConsumer<QueuePlayer, Payload> remoteSink;
+
+    public RegionFanout(Plugin plugin) {
+        this.plugin = plugin;
+        this.batches = new LongAdder();
+        this.deliveries = new LongAdder();
+        this.handoffs = new LongAdder();
+    }
+
+    public void send(Collection<QueuePlayer> recipients, Payload payload) {
+        sendEach(recipients, _ -> payload);
+    }
+
+    // Per-recipient payloads, still batched into one task per region section; a null payload skips the player.
+    // Sections are fixed 256x256 block squares located from the position seen on the player's own thread at the last
+    // delivery, so they only approximate the owning regions: a player who has moved on is handed off to their entity
+    // scheduler at delivery. A player with no known position yet gets their own entity task.
+    public void sendEach(Collection<QueuePlayer> recipients, Function<QueuePlayer, Payload> payloads) {
+        Map<Section, List<Delivery>> sections = new HashMap<>();
+        for (QueuePlayer queuePlayer : recipients) {
+            if (queuePlayer.isRemote()) {
+                BiConsumer<QueuePlayer, Payload> sink = remoteSink;
+                Payload payload = sink == null ? null : payloads.apply(queuePlayer);
+                if (payload != null) {
+                    sink.accept(queuePlayer, payload);
+                }
+                continue;
+            }
+            if (!queuePlayer.isOnline()) {
+                continue;
+            }
+            Payload payload = payloads.apply(queuePlayer);
+            if (payload == null) {
+                continue;
+            }
+            Location location = queuePlayer.getLastLocation();
+            if (location == null) {
+                handOff(queuePlayer, payload);
+                continue;
+            }
+            Section section = new Section(location.getWorld(),
+                    (location.getBlockX() >> 4) >> SECTION_SHIFT,
+                    (location.getBlockZ() >> 4) >> SECTION_SHIFT);
+            sections.computeIfAbsent(section, _ -> new ArrayList<>()).add(new Delivery(queuePlayer, payload));
+        }
+
+        for (Map.Entry<Section, List<Delivery>> entry : sections.entrySet()) {
+            Section section = entry.getKey();
+            List<Delivery> deliveryList = entry.getValue();
+            batches.increment();
+            Bukkit.getRegionScheduler().execute(plugin, section.world(),
+                    section.x() << SECTION_SHIFT, section.z() << SECTION_SHIFT,
+                    () -> deliver(deliveryList));
+        }
+    }
+
+    public void sendTo(Player player, Payload payload) {
+        player.getScheduler().run(plugin, _ -> payload.apply(plugin, player), null);
+        deliveries.increment();
+    }
+
+    // Players connected to another node are handed to this sink instead of a region.
+    public void setRemoteSink(BiConsumer<QueuePlayer, Payload> remoteSink) {
+        this.remoteSink = remoteSink;
+    }
+
+    private void deliver(List<Delivery> deliveryList) {
+        for (Delivery delivery : deliveryList) {
+            QueuePlayer queuePlayer = delivery.player();
+            Player player = queuePlayer.getPlayer();
+            Payload payload = delivery.payload();
+            if (!player.isOnline()) {
+                continue;
+            }
+            if (Bukkit.isOwnedByCurrentRegion(player)) {
+                queuePlayer.setLastLocation(player.getLocation());
+                payload.apply(plugin, player);
+                deliveries.increment();
+            } else {
+                handOff(queuePlayer, payload);
+            }
+        }
+    }
+
+    // Runs on the player's own thread, which is also where their position can be read safely for the next batch.
+    private void handOff(QueuePlayer queuePlayer, Payload payload) {
+        Player player = queuePlayer.getPlayer();
+        handoffs.increment();
+        deliveries.increment();
+        player.getScheduler().execute(plugin, () -> {
+            queuePlayer.setLastLocation(player.getLocation());
+            payload.apply(plugin, player);
+        }, null, 1L);
+    }
+
+    // Getters
+    public long getBatches() { return batches.sum(); }
+    public long getDeliveries() { return deliveries.sum(); }
+    public long getHandoffs() { return handoffs.sum(); }
+
+    public record Payload(List<String> messages, String actionBar, Sound sound, String command,
+                          Consumer<Boolean> commandResult) {
+
+        public static Payload of(String... messages) {
+            return new Payload(List.of(messages), null, null, null, null);
+        }
+
+        public static Payload actionBar(String actionBar) {
+            return new Payload(List.of(), actionBar, null, null, null);
+        }
+
+        public Payload withSound(Sound sound) {
+            return new Payload(messages, actionBar, sound, command, commandResult);
+        }
+
+        public Payload withCommand(String command) {
+            return new Payload(messages, actionBar, sound, command, null);
+        }
+
+        public Payload withCommand(String command, Consumer<Boolean> commandResult) {
+            return new Payload(messages, actionBar, sound, command, commandResult);
+        }
+
+        private void apply(Plugin plugin, Player player) {
+            for (String message : messages) {
+                player.sendMessage(message);
+            }
+            if (actionBar != null) {
+                player.sendActionBar(LegacyComponentSerializer.legacySection().deserialize(actionBar));
+            }
+            if (sound != null) {
+                player.playSound(sound);
+            }
+            if (command != null) {
+                boolean dispatched = plugin.getServer().dispatchCommand(player, command);
+                if (commandResult != null) {
+                    commandResult.accept(dispatched);
+                }
+            }
+        }
+    }
+
+    private record Section(World world, int x, int z) {
+    }
+
+    private record Delivery(QueuePlayer player, Payload payload) {
+    }
+}
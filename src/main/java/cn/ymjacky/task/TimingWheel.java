@@ -0,0 +1,198 @@
+package cn.ymjacky.task;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class TimingWheel {
+
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+    private static final long MAX_DELAY = (1L << (SLOT_BITS * LEVELS)) - 1;
+
+    private final Timer[][] slots;
+    private long currentTick;
+    private int liveTimers;
+    private long scheduledTimers;
+    private long firedTimers;
+    private long cancelledTimers;
+
+    public TimingWheel() {
+        this.slots = new Timer[LEVELS][SLOTS];
+        this.currentTick = 0;
+    }
+
+    public Timer schedule(long delayTicks, Runnable task) {
+        return schedule(delayTicks, 0, task);
+    }
+
+    public Timer scheduleAtFixedRate(long delayTicks, long periodTicks, Runnable task) {
+        if (periodTicks <= 0) {
+            throw new IllegalArgumentException("periodTicks must be positive");
+        }
+        return schedule(delayTicks, periodTicks, task);
+    }
+
+    private synchronized Timer schedule(long delayTicks, long periodTicks, Runnable task) {
+        Timer timer = new Timer(this, task, Math.min(periodTicks, MAX_DELAY));
+        insert(timer, currentTick + Math.max(1, Math.min(delayTicks, MAX_DELAY)));
+        liveTimers++;
+        scheduledTimers++;
+        return timer;
+    }
+
+    public void tick() {
+        List<Timer> due = new ArrayList<>();
+        synchronized (this) {
+            currentTick++;
+            for (int level = LEVELS - 1; level > 0; level--) {
+                if ((currentTick & ((1L << (SLOT_BITS * level)) - 1)) == 0) {
+                    cascade(level);
+                }
+            }
+            int slot = (int) (currentTick & SLOT_MASK);
+            for (Timer timer = slots[0][slot]; timer != null; ) {
+                Timer next = timer.next;
+                unlink(timer);
+                timer.running = true;
+                due.add(timer);
+                timer = next;
+            }
+        }
+
+        RuntimeException failure = null;
+        for (Timer timer : due) {
+            try {
+                if (!timer.done) {
+                    timer.task.run();
+                }
+            } catch (RuntimeException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+            synchronized (this) {
+                timer.running = false;
+                if (timer.done) {
+                    continue;
+                }
+                firedTimers++;
+                if (timer.period > 0) {
+                    insert(timer, currentTick + timer.period);
+                } else {
+                    timer.done = true;
+                    liveTimers--;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    public synchronized void clear() {
+        for (Timer[] level : slots) {
+            for (int slot = 0; slot < SLOTS; slot++) {
+                for (Timer timer = level[slot]; timer != null; timer = timer.next) {
+                    timer.done = true;
+                }
+                level[slot] = null;
+            }
+        }
+        liveTimers = 0;
+    }
+
+    private synchronized boolean cancel(Timer timer) {
+        if (timer.done) {
+            return false;
+        }
+        timer.done = true;
+        if (!timer.running) {
+            unlink(timer);
+        }
+        liveTimers--;
+        cancelledTimers++;
+        return true;
+    }
+
+    private void cascade(int level) {
+        int slot = (int) ((currentTick >>> (SLOT_BITS * level)) & SLOT_MASK);
+        Timer timer = slots[level][slot];
+        slots[level][slot] = null;
+        while (timer != null) {
+            Timer next = timer.next;
+            timer.prev = null;
+            timer.next = null;
+            insert(timer, timer.deadline);
+            timer = next;
+        }
+    }
+
+    private void insert(Timer timer, long deadline) {
+        timer.deadline = deadline;
+        long distance = deadline ^ currentTick;
+        int level = 0;
+        while (level < LEVELS - 1 && distance >= (1L << (SLOT_BITS * (level + 1)))) {
+            level++;
+        }
+        int slot = (int) ((deadline >>> (SLOT_BITS * level)) & SLOT_MASK);
+        timer.level = level;
+        timer.slot = slot;
+        timer.prev = null;
+        timer.next = slots[level][slot];
+        if (timer.next != null) {
+            timer.next.prev = timer;
+        }
+        slots[level][slot] = timer;
+    }
+
+    private void unlink(Timer timer) {
+        if (timer.prev == null) {
+            if (slots[timer.level][timer.slot] == timer) {
+                slots[timer.level][timer.slot] = timer.next;
+            }
+        } else {
+            timer.prev.next = timer.next;
+        }
+        if (timer.next != null) {
+            timer.next.prev = timer.prev;
+        }
+        timer.prev = null;
+        timer.next = null;
+    }
+
+    // Getters
+    public synchronized long getCurrentTick() { return currentTick; }
+    public synchronized int getLiveTimers() { return liveTimers; }
+    public synchronized long getScheduledTimers() { return scheduledTimers; }
+    public synchronized long getFiredTimers() { return firedTimers; }
+    public synchronized long getCancelledTimers() { return cancelledTimers; }
+
+    public static final class Timer {
+        private final TimingWheel wheel;
+        private final Runnable task;
+        private final long period;
+        private long deadline;
+        private int level;
+        private int slot;
+        private Timer prev;
+        private Timer next;
+        private boolean running;
+        private volatile boolean done;
+
+        private Timer(TimingWheel wheel, Runnable task, long period) {
+            this.wheel = wheel;
+            this.task = task;
+            this.period = period;
+        }
+
+        public boolean cancel() {
+            return wheel.cancel(this);
+        }
+
+        public boolean isDone() {
+            return done;
+        }
+    }
+}